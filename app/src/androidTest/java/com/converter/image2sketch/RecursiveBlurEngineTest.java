@@ -0,0 +1,88 @@
+package com.converter.image2sketch;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class RecursiveBlurEngineTest {
+
+    @Before
+    public void loadOpenCV() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    private static Mat createImage(int width, int height, int type) {
+        int channels = CvType.channels(type);
+        byte[] data = new byte[width * height * channels];
+        Random random = new Random(1);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int value = ((x / 37 + y / 23) % 2 == 0 ? 180 : 40) + random.nextInt(40) + x / 10;
+                for (int c = 0; c < channels; c++) {
+                    data[(y * width + x) * channels + c] = (byte) Math.min(255, value);
+                }
+            }
+        }
+        Mat mat = new Mat(height, width, type);
+        mat.put(0, 0, data);
+        return mat;
+    }
+
+    private static void assertMatchesOpenCV(Mat src, int thickness, double maxMeanError, double maxError) {
+        Mat expected = new Mat();
+        Mat actual = new Mat();
+        Mat diff = new Mat();
+        new GaussianBlurEngine().blur(src, expected, thickness);
+        new RecursiveBlurEngine().blur(src, actual, thickness);
+
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.type(), actual.type());
+
+        Core.absdiff(expected, actual, diff);
+        Core.MinMaxLocResult minMax = Core.minMaxLoc(diff.reshape(1));
+        double meanError = Core.mean(diff.reshape(1)).val[0];
+        assertTrue("thickness " + thickness + " mean error " + meanError, meanError <= maxMeanError);
+        assertTrue("thickness " + thickness + " max error " + minMax.maxVal, minMax.maxVal <= maxError);
+
+        expected.release();
+        actual.release();
+        diff.release();
+    }
+
+    @Test
+    public void matchesOpenCVAcrossThickness() {
+        Mat src = createImage(400, 300, CvType.CV_8UC1);
+        for (int thickness : new int[]{3, 5, 10, 20, 50, 100}) {
+            assertMatchesOpenCV(src, thickness, 0.5, 2);
+        }
+        src.release();
+    }
+
+    @Test
+    public void matchesOpenCVOnRgba() {
+        Mat src = createImage(320, 240, CvType.CV_8UC4);
+        assertMatchesOpenCV(src, 25, 0.5, 2);
+        src.release();
+    }
+
+    @Test
+    public void smallThicknessIsExact() {
+        Mat src = createImage(200, 150, CvType.CV_8UC1);
+        for (int thickness : new int[]{0, 1, 2}) {
+            assertMatchesOpenCV(src, thickness, 0, 0);
+        }
+        src.release();
+    }
+}
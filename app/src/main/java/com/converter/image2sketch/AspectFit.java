@@ -0,0 +1,42 @@
+package com.converter.image2sketch;
+
+import android.graphics.Bitmap;
+
+/**
+ * Aspect-preserving downscale of a Bitmap into a square, shared by the working copy, the
+ * thumbnails and the render cache so that all of them agree on the size to the pixel.
+ */
+final class AspectFit {
+
+    private AspectFit() {
+    }
+
+    /**
+     * Returns {@code bitmap} scaled with filtering so its longer side is {@code maxSize},
+     * or {@code bitmap} itself if it already fits.
+     */
+    static Bitmap downscale(Bitmap bitmap, int maxSize) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= maxSize && height <= maxSize) {
+            return bitmap;
+        }
+        int[] size = fit(width, height, maxSize);
+        return Bitmap.createScaledBitmap(bitmap, size[0], size[1], true);
+    }
+
+    /**
+     * Returns {width, height} for a {@code width} x {@code height} image whose longer side
+     * is brought down to {@code maxSize}. Decoders that shrink without a Bitmap use this
+     * too, so their output matches {@link #downscale}.
+     */
+    static int[] fit(int width, int height, int maxSize) {
+        if (width <= maxSize && height <= maxSize) {
+            return new int[]{width, height};
+        }
+        if (width > height) {
+            return new int[]{maxSize, Math.max(1, Math.round(maxSize * (float) height / width))};
+        }
+        return new int[]{Math.max(1, Math.round(maxSize * (float) width / height)), maxSize};
+    }
+}
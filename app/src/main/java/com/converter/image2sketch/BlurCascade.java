@@ -0,0 +1,92 @@
+package com.converter.image2sketch;
+
+import org.opencv.core.Mat;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Small sigma-ordered cache of blurred copies of one plane. A new thickness is built by
+ * blurring the nearest smaller cached result with sqrt(sigma^2 - sigma1^2), which is far
+ * cheaper than starting from the plane when the slider moves in one direction.
+ */
+public class BlurCascade {
+    private static final int MIN_THICKNESS = 3;
+    private static final int MAX_ENTRIES = 6;
+    private static final int MAX_DEPTH = 8;
+    private static final double MIN_STEP = 0.5;
+
+    private static class Entry {
+        final Mat mat;
+        final int depth;
+
+        Entry(Mat mat, int depth) {
+            this.mat = mat;
+            this.depth = depth;
+        }
+    }
+
+    private final BlurEngine blurEngine;
+    private final BufferPool pool;
+    private final TreeMap<Double, Entry> entries = new TreeMap<>();
+
+    public BlurCascade(BlurEngine blurEngine) {
+        this(blurEngine, new BufferPool(0));
+    }
+
+    public BlurCascade(BlurEngine blurEngine, BufferPool pool) {
+        this.blurEngine = blurEngine;
+        this.pool = pool;
+    }
+
+    /**
+     * Blurs {@code plane} for {@code thickness} into {@code dst}. The plane must be the same
+     * Mat, unchanged, for every call until {@link #clear()}.
+     */
+    public void blur(Mat plane, Mat dst, int thickness) {
+        if (thickness < MIN_THICKNESS) {
+            blurEngine.blur(plane, dst, thickness);
+            return;
+        }
+
+        double sigma = BlurEngine.sigmaFor(thickness);
+        Entry exact = entries.get(sigma);
+        if (exact != null) {
+            exact.mat.copyTo(dst);
+            return;
+        }
+
+        Map.Entry<Double, Entry> lower = entries.lowerEntry(sigma);
+        Mat blurred = pool.acquireMat(plane.rows(), plane.cols(), plane.type());
+        int depth;
+        if (lower != null && lower.getValue().depth < MAX_DEPTH
+                && sigma * sigma - lower.getKey() * lower.getKey() >= MIN_STEP * MIN_STEP) {
+            double step = Math.sqrt(sigma * sigma - lower.getKey() * lower.getKey());
+            blurEngine.blurSigma(lower.getValue().mat, blurred, step);
+            depth = lower.getValue().depth + 1;
+        } else {
+            blurEngine.blur(plane, blurred, thickness);
+            depth = 0;
+        }
+
+        entries.put(sigma, new Entry(blurred, depth));
+        evictFarthestFrom(sigma);
+        blurred.copyTo(dst);
+    }
+
+    private void evictFarthestFrom(double sigma) {
+        while (entries.size() > MAX_ENTRIES) {
+            double first = entries.firstKey();
+            double last = entries.lastKey();
+            Entry evicted = entries.remove(sigma - first > last - sigma ? first : last);
+            pool.recycle(evicted.mat);
+        }
+    }
+
+    public void clear() {
+        for (Entry entry : entries.values()) {
+            pool.recycle(entry.mat);
+        }
+        entries.clear();
+    }
+}
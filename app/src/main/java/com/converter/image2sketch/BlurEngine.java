@@ -0,0 +1,44 @@
+package com.converter.image2sketch;
+
+import org.opencv.core.Mat;
+
+/**
+ * Blurs an 8-bit Mat for a slider thickness. Implementations must match the look of
+ * {@code Imgproc.GaussianBlur} with a {@code (2 * thickness + 1)} square kernel.
+ */
+public interface BlurEngine {
+
+    void blur(Mat src, Mat dst, int thickness);
+
+    void blurSigma(Mat src, Mat dst, double sigma);
+
+    /**
+     * Whether building a larger blur from a cached smaller one is cheaper than a fresh blur.
+     */
+    default boolean isCascadable() {
+        return true;
+    }
+
+    /**
+     * Whether the engine works from a summed-area table, which the {@link StageCache} then
+     * builds once per cached plane and passes to {@link #blurIntegral}.
+     */
+    default boolean isIntegral() {
+        return false;
+    }
+
+    /**
+     * Blurs {@code src} given {@code integral}, its table laid out like the CV_32S output of
+     * {@code Imgproc.integral}. Only called on engines that return true from {@link #isIntegral()}.
+     */
+    default void blurIntegral(Mat src, int[] integral, Mat dst, int thickness) {
+        blur(src, dst, thickness);
+    }
+
+    /**
+     * The sigma OpenCV derives for a {@code (2 * thickness + 1)} kernel when none is given.
+     */
+    static double sigmaFor(int thickness) {
+        return 0.3 * (thickness - 1) + 0.8;
+    }
+}
@@ -0,0 +1,215 @@
+package com.converter.image2sketch;
+
+import android.content.ComponentCallbacks2;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Idle Mats keyed by (rows, cols, type) and scratch arrays keyed by length, kept for
+ * reuse by later renders of the same size. Idle buffers are limited to a byte budget;
+ * the least recently used size class is dropped first. Thread-safe.
+ */
+public class BufferPool {
+    public static final long DEFAULT_BUDGET = 48L << 20;
+
+    private static final int KIND_MAT = 0;
+    private static final int KIND_BYTES = 1;
+    private static final int KIND_INTS = 2;
+    private static final int KIND_FLOATS = 3;
+    private static final int KIND_DOUBLES = 4;
+
+    private static final class Key {
+        int kind;
+        int rows;
+        int cols;
+        int type;
+
+        Key set(int kind, int rows, int cols, int type) {
+            this.kind = kind;
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return kind == key.kind && rows == key.rows && cols == key.cols && type == key.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((kind * 31 + rows) * 31 + cols) * 31 + type;
+        }
+    }
+
+    private final LinkedHashMap<Key, ArrayDeque<Object>> idle = new LinkedHashMap<>(16, 0.75f, true);
+    // Lookups reuse one key under the lock so a pool hit allocates nothing.
+    private final Key probe = new Key();
+    private long budget;
+    private long idleBytes;
+
+    public BufferPool() {
+        this(DEFAULT_BUDGET);
+    }
+
+    public BufferPool(long budget) {
+        this.budget = budget;
+    }
+
+    public synchronized void setBudget(long budget) {
+        this.budget = budget;
+        trimTo(budget);
+    }
+
+    public synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+    /**
+     * Returns a continuous Mat of the given shape; its contents are undefined.
+     */
+    public Mat acquireMat(int rows, int cols, int type) {
+        Mat mat = (Mat) take(KIND_MAT, rows, cols, type);
+        return mat != null ? mat : new Mat(rows, cols, type);
+    }
+
+    /**
+     * Keeps {@code mat} for reuse, or releases it if it does not own a continuous buffer
+     * or does not fit in the budget. The caller must not touch it afterwards.
+     */
+    public void recycle(Mat mat) {
+        MatScope.recycled(mat);
+        if (mat.empty() || mat.isSubmatrix() || !mat.isContinuous()) {
+            mat.release();
+            return;
+        }
+        long size = mat.total() * mat.elemSize();
+        if (!offer(KIND_MAT, mat.rows(), mat.cols(), mat.type(), mat, size)) {
+            mat.release();
+        }
+    }
+
+    public byte[] acquireBytes(int length) {
+        byte[] array = (byte[]) take(KIND_BYTES, length, 0, 0);
+        return array != null ? array : new byte[length];
+    }
+
+    public void recycle(byte[] array) {
+        offer(KIND_BYTES, array.length, 0, 0, array, array.length);
+    }
+
+    public int[] acquireInts(int length) {
+        int[] array = (int[]) take(KIND_INTS, length, 0, 0);
+        return array != null ? array : new int[length];
+    }
+
+    public void recycle(int[] array) {
+        offer(KIND_INTS, array.length, 0, 0, array, 4L * array.length);
+    }
+
+    public float[] acquireFloats(int length) {
+        float[] array = (float[]) take(KIND_FLOATS, length, 0, 0);
+        return array != null ? array : new float[length];
+    }
+
+    public void recycle(float[] array) {
+        offer(KIND_FLOATS, array.length, 0, 0, array, 4L * array.length);
+    }
+
+    public double[] acquireDoubles(int length) {
+        double[] array = (double[]) take(KIND_DOUBLES, length, 0, 0);
+        return array != null ? array : new double[length];
+    }
+
+    public void recycle(double[] array) {
+        offer(KIND_DOUBLES, array.length, 0, 0, array, 8L * array.length);
+    }
+
+    /**
+     * Drops idle buffers in response to {@link ComponentCallbacks2#onTrimMemory}: half of
+     * the budget while the app is running low, everything once it is hidden or critical.
+     * Moderate pressure leaves the pool alone, since renders still in flight would only
+     * allocate the buffers again.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            clear();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimTo(budget / 2);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    private synchronized Object take(int kind, int rows, int cols, int type) {
+        Key key = probe.set(kind, rows, cols, type);
+        ArrayDeque<Object> buffers = idle.get(key);
+        if (buffers == null || buffers.isEmpty()) {
+            return null;
+        }
+        Object buffer = buffers.pop();
+        idleBytes -= sizeOf(key, buffer);
+        return buffer;
+    }
+
+    private synchronized boolean offer(int kind, int rows, int cols, int type, Object buffer, long size) {
+        if (size > budget) {
+            return false;
+        }
+        ArrayDeque<Object> buffers = idle.get(probe.set(kind, rows, cols, type));
+        if (buffers == null) {
+            buffers = new ArrayDeque<>();
+            idle.put(new Key().set(kind, rows, cols, type), buffers);
+        }
+        buffers.push(buffer);
+        idleBytes += size;
+        trimTo(budget);
+        return true;
+    }
+
+    private void trimTo(long target) {
+        Iterator<Map.Entry<Key, ArrayDeque<Object>>> it = idle.entrySet().iterator();
+        while (idleBytes > target && it.hasNext()) {
+            Map.Entry<Key, ArrayDeque<Object>> entry = it.next();
+            ArrayDeque<Object> buffers = entry.getValue();
+            while (idleBytes > target && !buffers.isEmpty()) {
+                Object buffer = buffers.removeLast();
+                idleBytes -= sizeOf(entry.getKey(), buffer);
+                if (buffer instanceof Mat) {
+                    ((Mat) buffer).release();
+                }
+            }
+            if (buffers.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private static long sizeOf(Key key, Object buffer) {
+        switch (key.kind) {
+            case KIND_MAT:
+                Mat mat = (Mat) buffer;
+                return mat.total() * mat.elemSize();
+            case KIND_BYTES:
+                return key.rows;
+            case KIND_DOUBLES:
+                return 8L * key.rows;
+            default:
+                return 4L * key.rows;
+        }
+    }
+}
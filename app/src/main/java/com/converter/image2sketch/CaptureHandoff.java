@@ -0,0 +1,70 @@
+package com.converter.image2sketch;
+
+import android.content.Context;
+import android.net.Uri;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Carries a frame captured by {@link LiveSketchActivity} over to {@link MainActivity} as
+ * a PNG under the app cache directory. An intent can only hold the pixels as a parcel,
+ * which for a working size image is close to the binder limit, and anything kept in
+ * memory is gone once the editor is recreated, so the intent carries the file's Uri and
+ * the editor opens it like any other image. The last few captures are kept so that
+ * editors further back in the task can still be recreated.
+ */
+public final class CaptureHandoff {
+    private static final String DIRECTORY = "captures";
+    private static final int MAX_CAPTURES = 4;
+    // Fast to write; the file only lives until a few more captures have been taken.
+    private static final int PNG_COMPRESSION = 1;
+
+    private CaptureHandoff() {
+    }
+
+    /**
+     * Writes {@code capture}, an RGBA Mat, to a new file and returns its Uri. Called on the
+     * camera thread.
+     */
+    public static Uri save(Context context, Mat capture) throws IOException {
+        File dir = new File(context.getCacheDir(), DIRECTORY);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        long time = System.currentTimeMillis();
+        File file = new File(dir, "capture_" + time + ".png");
+        File temp = new File(dir, "capture_" + time + ".tmp.png");
+
+        Mat bgr = new Mat();
+        Imgproc.cvtColor(capture, bgr, Imgproc.COLOR_RGBA2BGR);
+        MatOfInt params = new MatOfInt(Imgcodecs.IMWRITE_PNG_COMPRESSION, PNG_COMPRESSION);
+        boolean written = Imgcodecs.imwrite(temp.getPath(), bgr, params);
+        params.release();
+        bgr.release();
+        if (!written || !temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot write " + file);
+        }
+        prune(dir);
+        return Uri.fromFile(file);
+    }
+
+    private static void prune(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null || files.length <= MAX_CAPTURES) {
+            return;
+        }
+        // Names carry the capture time, so the newest sort first.
+        Arrays.sort(files, (a, b) -> b.getName().compareTo(a.getName()));
+        for (int i = MAX_CAPTURES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.converter.image2sketch;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * Renders and downscaled sources kept as PNG files under the app cache directory, so an
+ * image that is opened again shows its effects without being decoded and rendered anew.
+ * Entries are named by a hash of the encoded image plus the render settings. Files are
+ * written on a background thread and evicted least recently used first once the
+ * directory grows past its budget.
+ */
+public class DiskRenderCache {
+    private static final String TAG = "DiskRenderCache";
+    private static final String SUFFIX = ".png";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    public static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+
+    private static DiskRenderCache shared;
+
+    private final File dir;
+    private final long maxBytes;
+    private final LinkedBlockingQueue<Runnable> pending = new LinkedBlockingQueue<>();
+    private final ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, pending);
+    // Only touched on the writer thread; -1 until the directory has been measured.
+    private long size = -1;
+
+    public DiskRenderCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static synchronized DiskRenderCache shared(Context context) {
+        if (shared == null) {
+            shared = new DiskRenderCache(new File(context.getApplicationContext().getCacheDir(), "renders"), DEFAULT_BUDGET);
+        }
+        return shared;
+    }
+
+    /**
+     * Hashes the encoded image as it streams past, which is much cheaper than decoding it.
+     * CRC32 and Adler32 together with the length make accidental collisions between photos
+     * negligible.
+     */
+    public static String contentKey(InputStream in) throws IOException {
+        CRC32 crc = new CRC32();
+        Adler32 adler = new Adler32();
+        long length = 0;
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            crc.update(buffer, 0, read);
+            adler.update(buffer, 0, read);
+            length += read;
+        }
+        return Long.toHexString(crc.getValue()) + Long.toHexString(adler.getValue()) + "-" + Long.toHexString(length);
+    }
+
+    public Bitmap getRender(String contentKey, String settings, int effectType, int thickness, int size) {
+        return get(renderName(contentKey, settings, effectType, thickness, size));
+    }
+
+    public void putRender(String contentKey, String settings, int effectType, int thickness, int size, Bitmap render) {
+        put(renderName(contentKey, settings, effectType, thickness, size), render);
+    }
+
+    /**
+     * Returns the source downscaled to {@code size}, or null if it was never stored.
+     */
+    public Bitmap getSource(String contentKey, int size) {
+        return get(sourceName(contentKey, size));
+    }
+
+    public void putSource(String contentKey, int size, Bitmap source) {
+        put(sourceName(contentKey, size), source);
+    }
+
+    /**
+     * Drops queued writes, and the bitmaps they hold, when memory runs critically low, and
+     * gives back half of the directory once the app is in the background.
+     */
+    public void onTrimMemory(int level) {
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL || level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            pending.clear();
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            writer.execute(() -> trimToSize(maxBytes / 2));
+        }
+    }
+
+    public void clear() {
+        pending.clear();
+        writer.execute(() -> trimToSize(0));
+    }
+
+    private static String renderName(String contentKey, String settings, int effectType, int thickness, int size) {
+        return contentKey + "_" + settings + "_" + effectType + "_" + thickness + "_" + size;
+    }
+
+    private static String sourceName(String contentKey, int size) {
+        return contentKey + "_source_" + size;
+    }
+
+    private Bitmap get(String name) {
+        File file = new File(dir, name + SUFFIX);
+        if (!file.exists()) {
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            Log.w(TAG, "Dropping unreadable entry " + name);
+            file.delete();
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    private void put(String name, Bitmap bitmap) {
+        writer.execute(() -> write(name, bitmap));
+    }
+
+    private void write(String name, Bitmap bitmap) {
+        File file = new File(dir, name + SUFFIX);
+        if (file.exists()) {
+            file.setLastModified(System.currentTimeMillis());
+            return;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.w(TAG, "Cannot create " + dir);
+            return;
+        }
+        File temp = new File(dir, name + TEMP_SUFFIX);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 1 << 16)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + name + ": " + e.getMessage());
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        if (size < 0) {
+            trimToSize(maxBytes);
+        } else {
+            size += file.length();
+            if (size > maxBytes) {
+                trimToSize(maxBytes);
+            }
+        }
+    }
+
+    private void trimToSize(long target) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            size = 0;
+            return;
+        }
+        long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+            total += files[i].length();
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(modified[a], modified[b]));
+        for (int i = 0; i < order.length && total > target; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+        size = total;
+    }
+}
@@ -0,0 +1,116 @@
+package com.converter.image2sketch;
+
+import android.graphics.Bitmap;
+
+import org.opencv.core.Mat;
+
+import java.nio.IntBuffer;
+
+/**
+ * Color-dodge blend driven by a precomputed 256x256 table. Scratch buffers are checked
+ * out of a {@link BufferPool}, so repeated blends of the same size allocate nothing.
+ */
+public class DodgeBlender {
+    private static final byte[] DODGE_TABLE = buildTable();
+    private static final int GRAIN = 1 << 15;
+
+    private final TileExecutor executor;
+    private final BufferPool pool;
+
+    public DodgeBlender() {
+        this(TileExecutor.SEQUENTIAL);
+    }
+
+    public DodgeBlender(TileExecutor executor) {
+        this(executor, new BufferPool());
+    }
+
+    public DodgeBlender(TileExecutor executor, BufferPool pool) {
+        this.executor = executor;
+        this.pool = pool;
+    }
+
+    private static byte[] buildTable() {
+        byte[] table = new byte[256 * 256];
+        for (int mask = 0; mask < 256; mask++) {
+            for (int image = 0; image < 256; image++) {
+                int value = image == 255 ? 255 : Math.min(255, (mask << 8) / (255 - image));
+                table[(mask << 8) | image] = (byte) value;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Blends {@code layer} onto {@code base} and writes the result into {@code dst}, which
+     * must be mutable and may be the same bitmap as {@code layer}.
+     */
+    public void blend(Bitmap base, Bitmap layer, Bitmap dst) {
+        int length = base.getWidth() * base.getHeight();
+        int[] basePixels = pool.acquireInts(length);
+        int[] layerPixels = pool.acquireInts(length);
+
+        base.copyPixelsToBuffer(IntBuffer.wrap(basePixels));
+        layer.copyPixelsToBuffer(IntBuffer.wrap(layerPixels));
+        executor.forRange(0, length, GRAIN, (from, to) -> blend(basePixels, layerPixels, basePixels, from, to));
+        dst.copyPixelsFromBuffer(IntBuffer.wrap(basePixels));
+
+        pool.recycle(basePixels);
+        pool.recycle(layerPixels);
+    }
+
+    /**
+     * Blends two continuous 8-bit Mats of the same size and channel count into {@code dst}.
+     */
+    public void blend(Mat base, Mat layer, Mat dst) {
+        int length = (int) (base.total() * base.channels());
+        byte[] baseBytes = pool.acquireBytes(length);
+        byte[] layerBytes = pool.acquireBytes(length);
+
+        base.get(0, 0, baseBytes);
+        layer.get(0, 0, layerBytes);
+
+        int channels = base.channels();
+        executor.forRange(0, length / channels, GRAIN,
+                (from, to) -> blend(baseBytes, layerBytes, baseBytes, from * channels, to * channels, channels));
+
+        dst.put(0, 0, baseBytes);
+        pool.recycle(baseBytes);
+        pool.recycle(layerBytes);
+    }
+
+    /**
+     * Blends packed pixels as stored by {@link Bitmap#copyPixelsToBuffer}; alpha is forced opaque.
+     */
+    public static void blend(int[] base, int[] layer, int[] out, int from, int to) {
+        final byte[] table = DODGE_TABLE;
+        for (int i = from; i < to; i++) {
+            int b = base[i];
+            int l = layer[i];
+            int c0 = table[((l << 8) & 0xFF00) | (b & 0xFF)] & 0xFF;
+            int c1 = table[(l & 0xFF00) | ((b >>> 8) & 0xFF)] & 0xFF;
+            int c2 = table[((l >>> 8) & 0xFF00) | ((b >>> 16) & 0xFF)] & 0xFF;
+            out[i] = 0xFF000000 | (c2 << 16) | (c1 << 8) | c0;
+        }
+    }
+
+    /**
+     * Blends interleaved 8-bit samples. With four channels the fourth is treated as alpha
+     * and forced opaque.
+     */
+    public static void blend(byte[] base, byte[] layer, byte[] out, int from, int to, int channels) {
+        final byte[] table = DODGE_TABLE;
+        if (channels == 4) {
+            for (int i = from; i < to; i += 4) {
+                out[i] = table[((layer[i] & 0xFF) << 8) | (base[i] & 0xFF)];
+                out[i + 1] = table[((layer[i + 1] & 0xFF) << 8) | (base[i + 1] & 0xFF)];
+                out[i + 2] = table[((layer[i + 2] & 0xFF) << 8) | (base[i + 2] & 0xFF)];
+                out[i + 3] = (byte) 255;
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                out[i] = table[((layer[i] & 0xFF) << 8) | (base[i] & 0xFF)];
+            }
+        }
+    }
+}
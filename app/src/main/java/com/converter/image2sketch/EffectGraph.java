@@ -0,0 +1,180 @@
+package com.converter.image2sketch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link SketchImage} effects as a graph of named stages. Nodes are hash-consed, so
+ * a stage that several effects (or several branches of one effect) need is a single
+ * node, and an executor that memoises by node runs it once per request.
+ */
+final class EffectGraph {
+    static final int SOURCE = 0;
+    static final int GRAY = 1;
+    static final int INVERT = 2;
+    static final int BLUR = 3;
+    static final int DODGE = 4;
+    static final int DIVIDE = 5;
+    static final int MIX = 6;
+
+    private static final String[] NAMES = {"source", "gray", "invert", "blur", "dodge", "divide", "mix"};
+
+    static final class Node {
+        final int id;
+        final int op;
+        final Node first;
+        final Node second;
+        final boolean color;
+        final String key;
+
+        private Node(int id, int op, Node first, Node second, boolean color, String key) {
+            this.id = id;
+            this.op = op;
+            this.first = first;
+            this.second = second;
+            this.color = color;
+            this.key = key;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
+    /**
+     * An effect's root together with how many times each node is read while evaluating it,
+     * so an executor can release an intermediate as soon as its last reader is done, and
+     * the most blurs chained on any path from the root back to the source.
+     */
+    static final class Plan {
+        final Node root;
+        final int[] uses;
+        final int blurDepth;
+
+        Plan(Node root, int[] uses, int blurDepth) {
+            this.root = root;
+            this.uses = uses;
+            this.blurDepth = blurDepth;
+        }
+    }
+
+    private static final Map<String, Node> nodes = new HashMap<>();
+    private static final List<Node> ordered = new ArrayList<>();
+    private static final Plan[] plans = new Plan[SketchImage.SKETCH_TO_COLORED_SKETCH + 1];
+    private static final Plan PASS_THROUGH;
+
+    static {
+        Node source = node(SOURCE, null, null, true);
+        Node gray = gray(source);
+        Node sketch = sketch(source);
+
+        Node[] roots = new Node[plans.length];
+        roots[SketchImage.ORIGINAL_TO_GRAY] = gray;
+        roots[SketchImage.ORIGINAL_TO_SKETCH] = coloredSketch(sketch);
+        roots[SketchImage.ORIGINAL_TO_COLORED_SKETCH] = coloredSketch(source);
+        roots[SketchImage.ORIGINAL_TO_SOFT_SKETCH] = softSketch(source);
+        roots[SketchImage.ORIGINAL_TO_SOFT_COLOR_SKETCH] = softColorSketch(source);
+        roots[SketchImage.GRAY_TO_SKETCH] = sketch(gray);
+        roots[SketchImage.GRAY_TO_COLORED_SKETCH] = coloredSketch(gray);
+        roots[SketchImage.GRAY_TO_SOFT_SKETCH] = softSketch(gray);
+        roots[SketchImage.GRAY_TO_SOFT_COLOR_SKETCH] = softColorSketch(gray);
+        roots[SketchImage.SKETCH_TO_COLORED_SKETCH] = coloredSketch(sketch);
+
+        for (int i = 0; i < roots.length; i++) {
+            plans[i] = plan(roots[i]);
+        }
+        PASS_THROUGH = plan(source);
+    }
+
+    private EffectGraph() {
+    }
+
+    static Plan planFor(int effectType) {
+        return effectType >= 0 && effectType < plans.length ? plans[effectType] : PASS_THROUGH;
+    }
+
+    /**
+     * True for effects whose result has no colour, which engines return as a single plane.
+     */
+    static boolean isGray(int effectType) {
+        return !planFor(effectType).root.color;
+    }
+
+    static int size() {
+        return ordered.size();
+    }
+
+    private static Node sketch(Node image) {
+        Node gray = gray(image);
+        return node(DODGE, gray, node(BLUR, node(INVERT, gray, null, false), null, false), false);
+    }
+
+    private static Node coloredSketch(Node image) {
+        return node(MIX, image, sketch(image), image.color);
+    }
+
+    private static Node softSketch(Node image) {
+        Node gray = gray(image);
+        return node(DIVIDE, gray, node(BLUR, gray, null, false), false);
+    }
+
+    private static Node softColorSketch(Node image) {
+        Node coloredSketch = coloredSketch(image);
+        return node(MIX, softSketch(image), coloredSketch, coloredSketch.color);
+    }
+
+    private static Node gray(Node image) {
+        return image.color ? node(GRAY, image, null, false) : image;
+    }
+
+    private static Node node(int op, Node first, Node second, boolean color) {
+        StringBuilder key = new StringBuilder(NAMES[op]);
+        if (first != null) {
+            key.append('(').append(first.key);
+            if (second != null) {
+                key.append(',').append(second.key);
+            }
+            key.append(')');
+        }
+        String name = key.toString();
+        Node node = nodes.get(name);
+        if (node == null) {
+            node = new Node(ordered.size(), op, first, second, color, name);
+            nodes.put(name, node);
+            ordered.add(node);
+        }
+        return node;
+    }
+
+    private static Plan plan(Node root) {
+        int[] uses = new int[ordered.size()];
+        count(root, uses, new boolean[ordered.size()]);
+        return new Plan(root, uses, blurDepth(root));
+    }
+
+    private static int blurDepth(Node node) {
+        if (node == null) {
+            return 0;
+        }
+        int depth = Math.max(blurDepth(node.first), blurDepth(node.second));
+        return node.op == BLUR ? depth + 1 : depth;
+    }
+
+    private static void count(Node node, int[] uses, boolean[] visited) {
+        if (visited[node.id]) {
+            return;
+        }
+        visited[node.id] = true;
+        if (node.first != null) {
+            uses[node.first.id]++;
+            count(node.first, uses, visited);
+        }
+        if (node.second != null) {
+            uses[node.second.id]++;
+            count(node.second, uses, visited);
+        }
+    }
+}
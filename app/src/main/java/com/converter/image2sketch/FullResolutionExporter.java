@@ -0,0 +1,247 @@
+package com.converter.image2sketch;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Renders an effect at the source's own resolution without ever holding the whole image.
+ * The source is decoded tile by tile with a {@link BitmapRegionDecoder}, each tile is
+ * widened by the blur's reach so its inner part matches an untiled render, and finished
+ * bands of rows are streamed straight into a {@link PngStreamWriter}.
+ * The reach grows with the image, so past {@link #MAX_HALO} the blurs are computed on the
+ * widened tile decoded at a power-of-two reduction and upsampled into the tile, and only
+ * the point-wise stages run at full resolution. That is an approximation: a blur of a
+ * blurred image then sees its input at the reduced level, as the 800px preview does.
+ * Peak memory depends on the tile size and the image width, not on the image height or
+ * the thickness.
+ */
+public class FullResolutionExporter {
+    private static final String TAG = "FullResolutionExporter";
+    private static final int TILE_SIZE = 1024;
+    // Widest halo decoded at full resolution, and at any reduced level.
+    static final int MAX_HALO = TILE_SIZE / 4;
+
+    public interface ProgressListener {
+        void onProgress(int done, int total);
+    }
+
+    private final MatSketchEngine engine;
+    private final BlurEngine blurEngine;
+    private final BufferPool pool;
+
+    FullResolutionExporter(BlurEngine blurEngine, TileExecutor executor, BufferPool pool) {
+        this.engine = new MatSketchEngine(new StageCache(pool), blurEngine, executor, pool);
+        this.blurEngine = blurEngine;
+        this.pool = pool;
+    }
+
+    /**
+     * Streams {@code effectType} of the image in {@code source} to {@code out} as a PNG,
+     * 8-bit grayscale for effects without colour. Progress is reported in rows.
+     * {@code thickness} is the slider value as used for the 800px render and is scaled up
+     * to the source size. Neither stream is closed.
+     */
+    public void export(InputStream source, OutputStream out, int effectType, int thickness,
+                       CancellationSignal signal, ProgressListener listener) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(source, false);
+        try {
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            int size = Math.max(width, height);
+            int scaled = Math.round(thickness * (float) size / Math.min(size, SketchImage.FULL_SIZE));
+            int halo = reach(effectType, scaled);
+            int level = reductionFor(halo);
+            Log.d(TAG, "Exporting " + width + "x" + height + ", thickness " + scaled + ", halo " + halo
+                    + ", blurs reduced " + level + "x");
+
+            boolean gray = EffectGraph.isGray(effectType);
+            int bandType = gray ? CvType.CV_8UC1 : CvType.CV_8UC4;
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            Mat band = new Mat();
+            // The band is handed to the writer one row at a time, so it is never held twice.
+            byte[] row = pool.acquireBytes(width * (gray ? 1 : 4));
+            try (PngStreamWriter writer = new PngStreamWriter(out, width, height, gray)) {
+                for (int top = 0; top < height; top += TILE_SIZE) {
+                    int bottom = Math.min(top + TILE_SIZE, height);
+                    band.create(bottom - top, width, bandType);
+                    for (int left = 0; left < width; left += TILE_SIZE) {
+                        int right = Math.min(left + TILE_SIZE, width);
+                        renderTile(decoder, options, band, effectType, scaled, halo, level,
+                                new Rect(left, top, right, bottom), width, height, signal);
+                    }
+
+                    for (int y = 0; y < bottom - top; y++) {
+                        band.get(y, 0, row);
+                        writer.writeRows(row, 0, 1);
+                    }
+                    if (listener != null) {
+                        listener.onProgress(bottom, height);
+                    }
+                }
+                writer.finish();
+            } finally {
+                band.release();
+                pool.recycle(row);
+            }
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    private void renderTile(BitmapRegionDecoder decoder, BitmapFactory.Options options, Mat band, int effectType,
+                            int thickness, int halo, int level, Rect inner, int width, int height,
+                            CancellationSignal signal) {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+        Rect context = new Rect(Math.max(inner.left - halo, 0), Math.max(inner.top - halo, 0),
+                Math.min(inner.right + halo, width), Math.min(inner.bottom + halo, height));
+
+        try (MatScope scope = new MatScope(pool)) {
+            Mat result;
+            int innerLeft;
+            int innerTop;
+            if (level == 1) {
+                Mat src = decode(decoder, context, options, scope);
+                result = engine.renderMat(src, effectType, thickness, signal);
+                if (result != src) {
+                    scope.adopt(result);
+                }
+                innerLeft = inner.left - context.left;
+                innerTop = inner.top - context.top;
+            } else {
+                BitmapFactory.Options reduced = new BitmapFactory.Options();
+                reduced.inPreferredConfig = options.inPreferredConfig;
+                reduced.inSampleSize = level;
+                ReducedBlurs blurs = new ReducedBlurs(context, inner);
+                engine.setBlurStage(blurs);
+                try {
+                    Mat small = decode(decoder, context, reduced, scope);
+                    Mat discarded = engine.renderMat(small, effectType, thickness, signal);
+                    if (discarded != small) {
+                        pool.recycle(discarded);
+                    }
+                    scope.release(small);
+
+                    blurs.recording = false;
+                    Mat src = decode(decoder, inner, options, scope);
+                    result = engine.renderMat(src, effectType, thickness, signal);
+                    if (result != src) {
+                        scope.adopt(result);
+                    }
+                } finally {
+                    engine.setBlurStage(null);
+                    blurs.release();
+                }
+                innerLeft = 0;
+                innerTop = 0;
+            }
+            int innerWidth = inner.right - inner.left;
+            int innerHeight = inner.bottom - inner.top;
+            Mat from = scope.adopt(result.submat(innerTop, innerTop + innerHeight, innerLeft, innerLeft + innerWidth));
+            Mat to = scope.adopt(band.submat(0, innerHeight, inner.left, inner.right));
+            if (from.channels() < to.channels()) {
+                Imgproc.cvtColor(from, to, Imgproc.COLOR_GRAY2RGBA);
+            } else {
+                from.copyTo(to);
+            }
+        }
+    }
+
+    private static Mat decode(BitmapRegionDecoder decoder, Rect rect, BitmapFactory.Options options, MatScope scope) {
+        Bitmap region = decoder.decodeRegion(rect, options);
+        if (region == null) {
+            throw new IllegalStateException("Could not decode region " + rect.left + "," + rect.top
+                    + " " + rect.right + "," + rect.bottom);
+        }
+        Mat mat = scope.newMat();
+        Utils.bitmapToMat(region, mat);
+        region.recycle();
+        return mat;
+    }
+
+    /**
+     * Blur stages for one tile at a reduced level. While recording, each blur runs on the
+     * reduced context with its sigma scaled down and a copy is kept; afterwards the full
+     * resolution render of the inner tile gets the matching part of each copy, upsampled.
+     */
+    private class ReducedBlurs implements MatSketchEngine.BlurStage {
+        private final Rect context;
+        private final Rect inner;
+        private final Mat[] layers = new Mat[EffectGraph.size()];
+        boolean recording = true;
+
+        ReducedBlurs(Rect context, Rect inner) {
+            this.context = context;
+            this.inner = inner;
+        }
+
+        @Override
+        public void blur(EffectGraph.Node node, Mat plane, Mat dst, int thickness) {
+            if (recording) {
+                double scale = context.width() / (double) plane.cols();
+                blurEngine.blurSigma(plane, dst, BlurEngine.sigmaFor(thickness) / scale);
+                Mat layer = pool.acquireMat(dst.rows(), dst.cols(), dst.type());
+                dst.copyTo(layer);
+                layers[node.id] = layer;
+                return;
+            }
+            Mat layer = layers[node.id];
+            // Maps a full resolution pixel centre of the tile to the reduced context.
+            double scaleX = layer.cols() / (double) context.width();
+            double scaleY = layer.rows() / (double) context.height();
+            Mat transform = new Mat(2, 3, CvType.CV_64F);
+            transform.put(0, 0,
+                    scaleX, 0, (inner.left - context.left + 0.5) * scaleX - 0.5,
+                    0, scaleY, (inner.top - context.top + 0.5) * scaleY - 0.5);
+            Imgproc.warpAffine(layer, dst, transform, dst.size(), Imgproc.INTER_LINEAR | Imgproc.WARP_INVERSE_MAP,
+                    Core.BORDER_REPLICATE);
+            transform.release();
+        }
+
+        void release() {
+            for (Mat layer : layers) {
+                if (layer != null) {
+                    pool.recycle(layer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Power-of-two reduction at which {@code halo} full resolution pixels span at most
+     * {@link #MAX_HALO} pixels; 1 when the halo is decoded at full resolution.
+     */
+    static int reductionFor(int halo) {
+        int level = 1;
+        while (halo > MAX_HALO * level) {
+            level *= 2;
+        }
+        return level;
+    }
+
+    /**
+     * Rows or columns past a tile edge that can still change its pixels. One blur reaches
+     * the Gaussian kernel radius, or four sigma for the engines that are not truncated to
+     * the kernel; an effect that blurs a blurred image reaches that far once per blur.
+     */
+    static int reach(int effectType, int thickness) {
+        int blur = Math.max(thickness, (int) Math.ceil(4 * BlurEngine.sigmaFor(thickness)));
+        return blur * EffectGraph.planFor(effectType).blurDepth;
+    }
+}
@@ -0,0 +1,29 @@
+package com.converter.image2sketch;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+public class GaussianBlurEngine implements BlurEngine {
+    private final TileExecutor executor;
+
+    public GaussianBlurEngine() {
+        this(TileExecutor.SEQUENTIAL);
+    }
+
+    public GaussianBlurEngine(TileExecutor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void blur(Mat src, Mat dst, int thickness) {
+        Size blurSize = new Size(thickness * 2 + 1, thickness * 2 + 1);
+        executor.forTiles(src, dst, src.type(), thickness, (tile, out) -> Imgproc.GaussianBlur(tile, out, blurSize, 0));
+    }
+
+    @Override
+    public void blurSigma(Mat src, Mat dst, double sigma) {
+        int halo = (int) Math.ceil(sigma * 3) + 1;
+        executor.forTiles(src, dst, src.type(), halo, (tile, out) -> Imgproc.GaussianBlur(tile, out, new Size(0, 0), sigma));
+    }
+}
@@ -36,10 +36,13 @@ public class HomeActivity extends AppCompatActivity {
 
         Button btnUpload = findViewById(R.id.btn_upload);
         Button btnCamera = findViewById(R.id.btn_camera);
+        Button btnLive = findViewById(R.id.btn_live);
 
         btnUpload.setOnClickListener(v -> openGallery());
 
         btnCamera.setOnClickListener(v -> requestStorageAndCameraPermission());
+
+        btnLive.setOnClickListener(v -> startActivity(new Intent(HomeActivity.this, LiveSketchActivity.class)));
     }
 
 
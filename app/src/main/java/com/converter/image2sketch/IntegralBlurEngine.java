@@ -0,0 +1,146 @@
+package com.converter.image2sketch;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Box-filter blur answered from a summed-area table, so the cost per pixel is a few
+ * lookups whatever the thickness. The table of a cached gray or inverted plane is built
+ * once with {@code Imgproc.integral} and kept by the {@link StageCache} next to the plane
+ * (see {@link #blurIntegral}); other planes get a table per call. With two or three passes
+ * the stacked boxes approximate the Gaussian; passes after the first need a table of the
+ * previous pass, which is still linear in the image size.
+ */
+public class IntegralBlurEngine implements BlurEngine {
+    private final int passes;
+    private final TileExecutor executor;
+    private final BufferPool pool;
+
+    public IntegralBlurEngine(int passes) {
+        this(passes, TileExecutor.SEQUENTIAL);
+    }
+
+    public IntegralBlurEngine(int passes, TileExecutor executor) {
+        this(passes, executor, new BufferPool());
+    }
+
+    public IntegralBlurEngine(int passes, TileExecutor executor, BufferPool pool) {
+        if (passes < 1 || passes > 3) {
+            throw new IllegalArgumentException("passes must be 1, 2 or 3: " + passes);
+        }
+        this.passes = passes;
+        this.executor = executor;
+        this.pool = pool;
+    }
+
+    @Override
+    public void blur(Mat src, Mat dst, int thickness) {
+        blurSigma(src, dst, BlurEngine.sigmaFor(thickness));
+    }
+
+    @Override
+    public void blurSigma(Mat src, Mat dst, double sigma) {
+        int[] table = integral(src, pool);
+        blur(src, table, dst, sigma);
+        pool.recycle(table);
+    }
+
+    @Override
+    public boolean isCascadable() {
+        return false;
+    }
+
+    @Override
+    public boolean isIntegral() {
+        return true;
+    }
+
+    @Override
+    public void blurIntegral(Mat src, int[] integral, Mat dst, int thickness) {
+        blur(src, integral, dst, BlurEngine.sigmaFor(thickness));
+    }
+
+    /**
+     * Returns the (width + 1) x (height + 1) CV_32S summed-area table of {@code src},
+     * computed by {@code Imgproc.integral}, in an array from {@code pool}.
+     */
+    static int[] integral(Mat src, BufferPool pool) {
+        Mat sum = pool.acquireMat(src.rows() + 1, src.cols() + 1, CvType.CV_32SC(src.channels()));
+        Imgproc.integral(src, sum, CvType.CV_32S);
+        int[] table = pool.acquireInts((int) sum.total() * src.channels());
+        sum.get(0, 0, table);
+        pool.recycle(sum);
+        return table;
+    }
+
+    private void blur(Mat src, int[] table, Mat dst, double sigma) {
+        int width = src.cols();
+        int height = src.rows();
+        int channels = src.channels();
+        int length = width * height * channels;
+        byte[] out = pool.acquireBytes(length);
+
+        int[] radii = boxRadii(sigma, passes);
+        executor.forRows(height, (from, to) -> box(table, out, width, height, channels, radii[0], from, to));
+        if (passes > 1) {
+            Mat pass = pool.acquireMat(height, width, src.type());
+            for (int i = 1; i < passes; i++) {
+                int radius = radii[i];
+                pass.put(0, 0, out);
+                int[] passTable = integral(pass, pool);
+                executor.forRows(height, (from, to) -> box(passTable, out, width, height, channels, radius, from, to));
+                pool.recycle(passTable);
+            }
+            pool.recycle(pass);
+        }
+
+        dst.create(height, width, src.type());
+        dst.put(0, 0, out);
+        pool.recycle(out);
+    }
+
+    /**
+     * Box radii whose stacked variance matches {@code sigma} (Kovesi's construction).
+     */
+    static int[] boxRadii(double sigma, int passes) {
+        double ideal = Math.sqrt(12 * sigma * sigma / passes + 1);
+        int lower = (int) Math.floor(ideal);
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        int upper = lower + 2;
+        long lowerCount = Math.round((12 * sigma * sigma - passes * lower * lower - 4 * passes * lower - 3 * passes)
+                / (-4.0 * lower - 4));
+
+        int[] radii = new int[passes];
+        for (int i = 0; i < passes; i++) {
+            radii[i] = ((i < lowerCount ? lower : upper) - 1) / 2;
+        }
+        return radii;
+    }
+
+    /**
+     * Averages each pixel's window, clipped to the image, from a (width + 1) x (height + 1)
+     * table laid out like the output of {@code Imgproc.integral}, for rows [from, to).
+     */
+    private static void box(int[] table, byte[] out, int width, int height, int channels, int radius, int from, int to) {
+        int rowLength = (width + 1) * channels;
+        int o = from * width * channels;
+        for (int y = from; y < to; y++) {
+            int y0 = Math.max(y - radius, 0);
+            int y1 = Math.min(y + radius, height - 1) + 1;
+            int top = y0 * rowLength;
+            int bottom = y1 * rowLength;
+            for (int x = 0; x < width; x++) {
+                int x0 = Math.max(x - radius, 0) * channels;
+                int x1 = (Math.min(x + radius, width - 1) + 1) * channels;
+                int area = (y1 - y0) * ((x1 - x0) / channels);
+                for (int c = 0; c < channels; c++) {
+                    int sum = table[bottom + x1 + c] - table[top + x1 + c] - table[bottom + x0 + c] + table[top + x0 + c];
+                    out[o++] = (byte) ((sum + area / 2) / area);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.converter.image2sketch;
+
+import android.os.CancellationSignal;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the full quality render of an effect as a JPEG, encoded from the result Mat.
+ * Effects without colour are encoded as single-channel JPEGs, about a third the size of
+ * the same pixels stored as RGB. The encoded bytes are copied out of native memory in
+ * small chunks, so the file never exists as a Java array.
+ */
+public class JpegExporter {
+    public static final String MIME_TYPE = "image/jpeg";
+
+    private static final int QUALITY = 100;
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final SketchImage image;
+
+    public JpegExporter(SketchImage image) {
+        this.image = image;
+    }
+
+    /**
+     * Renders, encodes and writes {@code effectType} to {@code out}, which is not closed.
+     * Progress is reported in bytes written.
+     */
+    public void export(OutputStream out, int effectType, int thickness, CancellationSignal signal,
+                       FullResolutionExporter.ProgressListener listener) throws IOException {
+        MatOfByte encoded = new MatOfByte();
+        Mat result = image.getMatAs(effectType, thickness, signal);
+        try {
+            if (result.channels() == 4) {
+                Mat bgr = new Mat();
+                Imgproc.cvtColor(result, bgr, Imgproc.COLOR_RGBA2BGR);
+                result.release();
+                result = bgr;
+            }
+            if (signal != null) {
+                signal.throwIfCanceled();
+            }
+            if (!Imgcodecs.imencode(".jpg", result, encoded, new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, QUALITY))) {
+                throw new IOException("Could not encode " + result.cols() + "x" + result.rows() + " JPEG");
+            }
+            result.release();
+
+            int total = (int) encoded.total();
+            byte[] chunk = new byte[Math.min(CHUNK_SIZE, total)];
+            for (int done = 0; done < total; ) {
+                int length = encoded.get(done, 0, chunk);
+                if (length <= 0) {
+                    throw new IOException("Encoded JPEG ended at " + done + " of " + total + " bytes");
+                }
+                out.write(chunk, 0, length);
+                done += length;
+                if (listener != null) {
+                    listener.onProgress(done, total);
+                }
+            }
+        } finally {
+            result.release();
+            encoded.release();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.converter.image2sketch;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.View;
+import android.view.WindowManager;
+import android.widget.Button;
+
+import org.opencv.android.CameraActivity;
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shows the camera preview as a pencil sketch. Each frame is rendered from its Y plane
+ * alone, so no colour conversion happens before the effect, and the plane is shrunk
+ * before rendering whenever the measured frame time runs over the 30 fps budget.
+ * The shutter hands the next frame to {@link MainActivity} as a PNG, at most at the
+ * working size, so a still never goes through a JPEG.
+ */
+public class LiveSketchActivity extends CameraActivity implements CameraBridgeViewBase.CvCameraViewListener2 {
+    private static final String TAG = "LiveSketchActivity";
+
+    private static final int MAX_FRAME_WIDTH = 1280;
+    private static final int MAX_FRAME_HEIGHT = 720;
+    private static final int THICKNESS = 100;
+    private static final long FRAME_BUDGET_NANOS = 1_000_000_000L / 30;
+    // Leaves room in each frame for the conversion to a bitmap, which shares the thread.
+    private static final double RENDER_BUDGET_NANOS = FRAME_BUDGET_NANOS * 0.7;
+    private static final float MIN_SCALE = 0.25f;
+    private static final int ADAPT_INTERVAL = 8;
+
+    private final BufferPool pool = new BufferPool();
+    private final AtomicBoolean captureRequested = new AtomicBoolean();
+    private MatSketchEngine engine;
+    private CameraBridgeViewBase cameraView;
+    // A full scale sketch comes from the pool and is held until the bridge has drawn it;
+    // a reduced one is scaled back up into output, which belongs to this activity.
+    private Mat sketch;
+    private Mat output;
+    private float scale = 1f;
+    private double averageNanos;
+    private int framesSinceAdapt;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        setContentView(R.layout.activity_live_sketch);
+
+        if (!OpenCVLoader.initDebug()) {
+            Log.e(TAG, "OpenCV initialization failed");
+        }
+        TileExecutor executor = TileExecutor.shared();
+        engine = new MatSketchEngine(new StageCache(pool), new RecursiveBlurEngine(executor, pool), executor, pool);
+
+        cameraView = findViewById(R.id.camera_view);
+        cameraView.setVisibility(View.VISIBLE);
+        cameraView.setMaxFrameSize(MAX_FRAME_WIDTH, MAX_FRAME_HEIGHT);
+        cameraView.setCvCameraViewListener(this);
+
+        Button btnCapture = findViewById(R.id.btn_capture);
+        btnCapture.setOnClickListener(v -> captureRequested.set(true));
+    }
+
+    @Override
+    protected List<? extends CameraBridgeViewBase> getCameraViewList() {
+        return Collections.singletonList(cameraView);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        cameraView.enableView();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        cameraView.disableView();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cameraView.disableView();
+        pool.clear();
+    }
+
+    @Override
+    public void onCameraViewStarted(int width, int height) {
+        output = new Mat();
+        scale = 1f;
+        averageNanos = 0;
+        framesSinceAdapt = 0;
+    }
+
+    @Override
+    public void onCameraViewStopped() {
+        recycleSketch();
+        if (output != null) {
+            output.release();
+            output = null;
+        }
+    }
+
+    @Override
+    public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame frame) {
+        if (captureRequested.getAndSet(false)) {
+            capture(frame);
+        }
+        long start = System.nanoTime();
+        Mat gray = frame.gray();
+        int width = Math.max(1, Math.round(gray.cols() * scale));
+        int height = Math.max(1, Math.round(gray.rows() * scale));
+
+        // The render finishes before the frame's planes go back to the camera view and its
+        // result never aliases them, so only a reduced plane needs a buffer of its own.
+        boolean fullScale = width == gray.cols() && height == gray.rows();
+        Mat plane = gray;
+        if (!fullScale) {
+            plane = pool.acquireMat(height, width, CvType.CV_8UC1);
+            Imgproc.resize(gray, plane, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+        }
+        Mat rendered = engine.renderMat(plane, SketchImage.GRAY_TO_SKETCH, thicknessFor(width, height), null);
+        if (!fullScale) {
+            pool.recycle(plane);
+        }
+
+        // The bridge draws the result into a bitmap the size of the frame.
+        recycleSketch();
+        Mat result;
+        if (fullScale) {
+            sketch = rendered;
+            result = sketch;
+        } else {
+            Imgproc.resize(rendered, output, gray.size(), 0, 0, Imgproc.INTER_LINEAR);
+            pool.recycle(rendered);
+            result = output;
+        }
+        adapt(System.nanoTime() - start);
+        return result;
+    }
+
+    private void recycleSketch() {
+        if (sketch != null) {
+            pool.recycle(sketch);
+            sketch = null;
+        }
+    }
+
+    /**
+     * Converts the frame to RGBA once, shrunk to the working size, saves it and opens it in
+     * the editor. Called on the camera thread.
+     */
+    private void capture(CameraBridgeViewBase.CvCameraViewFrame frame) {
+        Mat rgba = frame.rgba();
+        int width = rgba.cols();
+        int height = rgba.rows();
+        Mat still = new Mat();
+        if (width > SketchImage.FULL_SIZE || height > SketchImage.FULL_SIZE) {
+            int[] size = AspectFit.fit(width, height, SketchImage.FULL_SIZE);
+            Imgproc.resize(rgba, still, new Size(size[0], size[1]), 0, 0, Imgproc.INTER_AREA);
+        } else {
+            rgba.copyTo(still);
+        }
+        Uri uri;
+        try {
+            uri = CaptureHandoff.save(this, still);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save the captured frame: " + e.getMessage());
+            return;
+        } finally {
+            still.release();
+        }
+        runOnUiThread(() -> {
+            Intent intent = new Intent(LiveSketchActivity.this, MainActivity.class);
+            intent.putExtra("imageUri", uri.toString());
+            startActivity(intent);
+        });
+    }
+
+    /**
+     * Thickness is chosen for an {@link SketchImage#FULL_SIZE} render and shrinks with
+     * the plane, so lines keep their width on screen as the scale changes.
+     */
+    private static int thicknessFor(int width, int height) {
+        float fraction = Math.min(1f, Math.max(width, height) / (float) SketchImage.FULL_SIZE);
+        return Math.max(1, Math.round(THICKNESS * fraction));
+    }
+
+    private void adapt(long frameNanos) {
+        averageNanos = averageNanos == 0 ? frameNanos : averageNanos * 0.8 + frameNanos * 0.2;
+        if (++framesSinceAdapt < ADAPT_INTERVAL) {
+            return;
+        }
+        framesSinceAdapt = 0;
+        float previous = scale;
+        if (averageNanos > RENDER_BUDGET_NANOS) {
+            // Render time follows the pixel count, which goes with the square of the scale.
+            scale = Math.max(MIN_SCALE, scale * (float) Math.sqrt(RENDER_BUDGET_NANOS / averageNanos));
+        } else if (averageNanos < RENDER_BUDGET_NANOS * 0.6) {
+            scale = Math.min(1f, scale * 1.1f);
+        }
+        if (scale != previous) {
+            Log.d(TAG, "Frame took " + (long) (averageNanos / 1000) + " us, processing scale " + scale);
+            averageNanos = 0;
+        }
+    }
+}
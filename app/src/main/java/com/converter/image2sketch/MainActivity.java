@@ -2,15 +2,20 @@ package com.converter.image2sketch;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.pm.ApplicationInfo;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.os.Environment;
+import android.os.OperationCanceledException;
 import android.provider.MediaStore;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageView;
@@ -24,23 +29,36 @@ import androidx.appcompat.app.AppCompatActivity;
 import com.google.android.material.tabs.TabLayout;
 
 import org.opencv.android.OpenCVLoader;
+import org.opencv.android.Utils;
+import org.opencv.core.Mat;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = MainActivity.class.getSimpleName();
     private ImageView target;
     private Bitmap bmOriginal;
+    private Uri imageUri;
     private SketchImage sketchImage;
+    private RenderScheduler renderScheduler;
+    private ThumbnailRenderer thumbnails;
+    private boolean tracking;
     private int MAX_PROGRESS = 100;
     private int effectType = SketchImage.ORIGINAL_TO_GRAY;
     private ProgressBar pb;
     private Button downloadButton;
+    private SeekBar seek;
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor();
+    private CancellationSignal exportSignal;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -57,17 +75,17 @@ public class MainActivity extends AppCompatActivity {
         } else {
             Log.d("OpenCV", "OpenCV initialized successfully");
         }
+        MatScope.setDebug((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
 
         String imageUriString = getIntent().getStringExtra("imageUri");
         if (imageUriString != null) {
-            Uri imageUri = Uri.parse(imageUriString);
-            loadUserImage(imageUri, userImageView);
-            loadImage(imageUri);
+            imageUri = Uri.parse(imageUriString);
+            loadImage(imageUri, userImageView);
         } else {
             Log.e(TAG, "No image URI provided.");
         }
 
-        SeekBar seek = findViewById(R.id.simpleSeekBar);
+        seek = findViewById(R.id.simpleSeekBar);
         TextView tvPB = findViewById(R.id.tv_pb);
 
         tvPB.setText(String.format("%d %%", MAX_PROGRESS));
@@ -80,29 +98,144 @@ public class MainActivity extends AppCompatActivity {
 
 
         downloadButton.setOnClickListener(v -> {
-            Bitmap processedBitmap = sketchImage.getImageAs(effectType, seek.getProgress());
-            if (processedBitmap != null) {
-                saveImageToGallery(processedBitmap);
-            } else {
+            if (sketchImage == null) {
                 Toast.makeText(MainActivity.this, "No image to save", Toast.LENGTH_SHORT).show();
+            } else if (exportSignal == null) {
+                saveImageToGallery(effectType, seek.getProgress());
             }
         });
+
+        downloadButton.setOnLongClickListener(v -> {
+            requestFullResolutionExport();
+            return true;
+        });
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Full resolution export decodes the opened file again.
+        menu.findItem(R.id.action_export_full).setVisible(imageUri != null);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_export_full) {
+            requestFullResolutionExport();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (renderScheduler != null) {
+            renderScheduler.shutdown();
+        }
+        if (thumbnails != null) {
+            thumbnails.shutdown();
+        }
+        if (exportSignal != null) {
+            exportSignal.cancel();
+        }
+        exportExecutor.shutdown();
+        MatScope.reportLeaks();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (sketchImage != null) {
+            sketchImage.onTrimMemory(level);
+        }
+    }
+
+    private void requestRender(int thickness) {
+        requestRender(thickness, SketchImage.QUALITY_FULL);
+    }
+
+    private void requestRender(int thickness, int quality) {
+        if (renderScheduler == null) {
+            return;
+        }
+        int effect = effectType;
+        renderScheduler.submit(effect, thickness, quality, bitmap -> target.setImageBitmap(bitmap));
     }
 
-    private void loadImage(Uri imageUri) {
-        try {
-            InputStream inputStream = getContentResolver().openInputStream(imageUri);
-            bmOriginal = BitmapFactory.decodeStream(inputStream);
-            if (bmOriginal != null) {
-                target.setImageBitmap(bmOriginal);
-                sketchImage = new SketchImage.Builder(this, bmOriginal).build();
-                target.setImageBitmap(sketchImage.getImageAs(effectType, MAX_PROGRESS));
-            } else {
+    /**
+     * Loads the image on the export thread, which is idle until the sketch exists, and
+     * starts the sketch back on the main thread. The file is hashed as it streams, so a
+     * disk cache hit needs no decode; otherwise a JPEG is decoded straight into the source
+     * Mat and other formats are streamed down in strips. The gray stage is converted from
+     * the source rather than decoded a second time.
+     */
+    private void loadImage(Uri imageUri, ImageView userImageView) {
+        exportExecutor.execute(() -> {
+            DiskRenderCache diskCache = DiskRenderCache.shared(this);
+            String contentKey = null;
+            Mat sourceMat = null;
+            Bitmap bitmap = null;
+            try {
+                try (InputStream in = openImage(imageUri)) {
+                    contentKey = DiskRenderCache.contentKey(in);
+                }
+                bitmap = diskCache.getSource(contentKey, SketchImage.FULL_SIZE);
+                if (bitmap == null) {
+                    sourceMat = MatDecoder.decode(getContentResolver(), imageUri, SketchImage.FULL_SIZE, false);
+                    if (sourceMat != null) {
+                        bitmap = Bitmap.createBitmap(sourceMat.cols(), sourceMat.rows(), Bitmap.Config.ARGB_8888);
+                        Utils.matToBitmap(sourceMat, bitmap);
+                    } else {
+                        bitmap = decodeWorkingBitmap(imageUri);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error loading image: " + e.getMessage());
+            }
+            if (bitmap == null) {
                 Log.e(TAG, "Failed to decode bitmap from the image URI.");
+                if (sourceMat != null) {
+                    sourceMat.release();
+                }
+                return;
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Error loading image: " + e.getMessage());
-        }
+
+            Bitmap loaded = bitmap;
+            Mat source = sourceMat;
+            String key = contentKey;
+            runOnUiThread(() -> {
+                if (!isDestroyed()) {
+                    bmOriginal = loaded;
+                    startSketch(userImageView, source, diskCache, key);
+                }
+                if (source != null) {
+                    source.release();
+                }
+            });
+        });
+    }
+
+    private void startSketch(ImageView userImageView, Mat sourceMat, DiskRenderCache diskCache, String contentKey) {
+        userImageView.setImageBitmap(bmOriginal);
+        target.setImageBitmap(bmOriginal);
+        sketchImage = new SketchImage.Builder(this, bmOriginal)
+                .setEngine(SketchImage.ENGINE_MAT)
+                .setBlurEngine(SketchImage.BLUR_RECURSIVE)
+                .setParallel(true)
+                .setDiskCache(diskCache, contentKey)
+                .setSourceMat(sourceMat)
+                .build();
+        renderScheduler = new RenderScheduler(sketchImage);
+        requestRender(MAX_PROGRESS);
+        TabLayout tabLayout = findViewById(R.id.tabLayout);
+        tabLayout.post(() -> renderThumbnails(tabLayout));
     }
 
     private void setupTabLayout(TabLayout tabLayout, TextView tvPB, SeekBar seek) {
@@ -114,7 +247,7 @@ public class MainActivity extends AppCompatActivity {
         };
 
         for (String effect : effects) {
-            tabLayout.addTab(tabLayout.newTab().setText(effect));
+            tabLayout.addTab(tabLayout.newTab().setCustomView(R.layout.tab_effect).setText(effect));
         }
 
         tabLayout.addOnTabSelectedListener(new TabLayout.OnTabSelectedListener() {
@@ -123,7 +256,7 @@ public class MainActivity extends AppCompatActivity {
                 effectType = tab.getPosition();
                 tvPB.setText(String.format("%d %%", MAX_PROGRESS));
                 seek.setProgress(MAX_PROGRESS);
-                target.setImageBitmap(sketchImage.getImageAs(effectType, MAX_PROGRESS));
+                requestRender(MAX_PROGRESS);
             }
 
             @Override
@@ -137,54 +270,158 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 tvPB.setText(String.format("%d %%", progress));
-                target.setImageBitmap(sketchImage.getImageAs(effectType, progress));
+                requestRender(progress, tracking ? SketchImage.QUALITY_PREVIEW : SketchImage.QUALITY_FULL);
             }
 
             @Override
             public void onStartTrackingTouch(SeekBar seekBar) {
+                tracking = true;
                 pb.setVisibility(View.VISIBLE);
             }
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
+                tracking = false;
                 pb.setVisibility(View.INVISIBLE);
-                target.setImageBitmap(sketchImage.getImageAs(effectType, seekBar.getProgress()));
+                requestRender(seekBar.getProgress(), SketchImage.QUALITY_FULL);
             }
         });
     }
 
-    private void saveImageToGallery(Bitmap bitmap) {
-        OutputStream fos;
-        try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-                ContentResolver resolver = getContentResolver();
-                ContentValues contentValues = new ContentValues();
-                contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, "sketch_image_" + System.currentTimeMillis() + ".jpg");
-                contentValues.put(MediaStore.MediaColumns.MIME_TYPE, "image/jpeg");
-                contentValues.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_PICTURES);
-                Uri imageUri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, contentValues);
-                if (imageUri != null) {
-                    fos = resolver.openOutputStream(imageUri);
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, 100, fos);
-                    fos.flush();
-                    fos.close();
-                    Toast.makeText(this, "Image saved to gallery", Toast.LENGTH_SHORT).show();
-                }
-            } else {
-                String imagesDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES).toString();
-                File image = new File(imagesDir, "sketch_image_" + System.currentTimeMillis() + ".jpg");
-                fos = new FileOutputStream(image);
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, fos);
-                fos.flush();
-                fos.close();
-                Toast.makeText(this, "Image saved to gallery", Toast.LENGTH_SHORT).show();
+    private void renderThumbnails(TabLayout tabLayout) {
+        thumbnails = new ThumbnailRenderer(this, bmOriginal, SketchImage.ENGINE_MAT, SketchImage.BLUR_RECURSIVE);
+        thumbnails.render(visibleTabsFirst(tabLayout), MAX_PROGRESS, (effect, thumbnail) -> {
+            TabLayout.Tab tab = tabLayout.getTabAt(effect);
+            View tabView = tab != null ? tab.getCustomView() : null;
+            if (tabView != null) {
+                ImageView thumbnailView = tabView.findViewById(R.id.iv_thumbnail);
+                thumbnailView.setImageBitmap(thumbnail);
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Error saving image: " + e.getMessage());
-            Toast.makeText(this, "Failed to save image", Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    /**
+     * Tab positions ordered by how far each tab is scrolled out of view; visible tabs come
+     * first, left to right.
+     */
+    private int[] visibleTabsFirst(TabLayout tabLayout) {
+        int left = tabLayout.getScrollX();
+        int right = left + tabLayout.getWidth();
+        int count = tabLayout.getTabCount();
+        Integer[] order = new Integer[count];
+        int[] distance = new int[count];
+        for (int i = 0; i < count; i++) {
+            View tabView = tabLayout.getTabAt(i).view;
+            distance[i] = Math.max(0, Math.max(left - tabView.getRight(), tabView.getLeft() - right));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(distance[a], distance[b]));
+        int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = order[i];
+        }
+        return positions;
+    }
+
+    private interface ExportWriter {
+        void write(OutputStream out, CancellationSignal signal, FullResolutionExporter.ProgressListener listener)
+                throws IOException;
+    }
+
+    /**
+     * Saves the working size render on the export thread, encoded from its Mat.
+     */
+    private void saveImageToGallery(int effect, int thickness) {
+        JpegExporter exporter = new JpegExporter(sketchImage);
+        exportToGallery("sketch_image_" + System.currentTimeMillis() + ".jpg", JpegExporter.MIME_TYPE,
+                (out, signal, listener) -> exporter.export(out, effect, thickness, signal, listener));
+    }
+
+    private void requestFullResolutionExport() {
+        if (sketchImage == null || imageUri == null) {
+            Toast.makeText(MainActivity.this, "No image to save", Toast.LENGTH_SHORT).show();
+        } else if (exportSignal == null) {
+            exportFullResolution(effectType, seek.getProgress());
         }
     }
 
+    private void exportFullResolution(int effect, int thickness) {
+        FullResolutionExporter exporter = sketchImage.newExporter();
+        Toast.makeText(this, "Exporting full resolution image", Toast.LENGTH_SHORT).show();
+        exportToGallery("sketch_image_" + System.currentTimeMillis() + ".png", "image/png", (out, signal, listener) -> {
+            try (InputStream in = getContentResolver().openInputStream(imageUri)) {
+                exporter.export(in, out, effect, thickness, signal, listener);
+            }
+        });
+    }
+
+    /**
+     * Runs {@code writer} on the export thread against a new gallery entry, showing progress
+     * on the download button. The entry stays pending until it is complete and is removed
+     * if writing fails or is cancelled.
+     */
+    private void exportToGallery(String name, String mimeType, ExportWriter writer) {
+        CancellationSignal signal = new CancellationSignal();
+        exportSignal = signal;
+
+        exportExecutor.execute(() -> {
+            boolean saved = false;
+            Uri outputUri = null;
+            File outputFile = null;
+            ContentResolver resolver = getContentResolver();
+            try {
+                OutputStream out;
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                    ContentValues contentValues = new ContentValues();
+                    contentValues.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
+                    contentValues.put(MediaStore.MediaColumns.MIME_TYPE, mimeType);
+                    contentValues.put(MediaStore.MediaColumns.RELATIVE_PATH, Environment.DIRECTORY_PICTURES);
+                    contentValues.put(MediaStore.MediaColumns.IS_PENDING, 1);
+                    outputUri = resolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, contentValues);
+                    if (outputUri == null) {
+                        throw new IOException("Could not create " + name);
+                    }
+                    out = resolver.openOutputStream(outputUri);
+                } else {
+                    String imagesDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES).toString();
+                    outputFile = new File(imagesDir, name);
+                    out = new FileOutputStream(outputFile);
+                }
+                try (OutputStream buffered = new BufferedOutputStream(out, 1 << 16)) {
+                    writer.write(buffered, signal, (done, total) -> runOnUiThread(() ->
+                            downloadButton.setText(String.format(" Exporting %d %% ", (int) (done * 100L / total)))));
+                }
+                if (outputUri != null) {
+                    ContentValues contentValues = new ContentValues();
+                    contentValues.put(MediaStore.MediaColumns.IS_PENDING, 0);
+                    resolver.update(outputUri, contentValues, null, null);
+                }
+                saved = true;
+            } catch (OperationCanceledException e) {
+                Log.d(TAG, "Export cancelled");
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error exporting image: " + e.getMessage(), e);
+            } finally {
+                if (!saved) {
+                    if (outputUri != null) {
+                        resolver.delete(outputUri, null, null);
+                    } else if (outputFile != null) {
+                        outputFile.delete();
+                    }
+                }
+            }
+
+            boolean success = saved;
+            runOnUiThread(() -> {
+                exportSignal = null;
+                downloadButton.setText(" Download ");
+                if (!signal.isCanceled()) {
+                    Toast.makeText(this, success ? "Image saved to gallery" : "Failed to save image", Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
+    }
+
     private Bitmap decodeSampledBitmapFromResource(Resources res, int resId, int reqWidth, int reqHeight) {
         final BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
@@ -195,17 +432,38 @@ public class MainActivity extends AppCompatActivity {
         return BitmapFactory.decodeResource(res, resId, options);
     }
 
-    private void loadUserImage(Uri imageUri, ImageView userImageView) {
-        try {
-            InputStream inputStream = getContentResolver().openInputStream(imageUri);
-            Bitmap userBitmap = BitmapFactory.decodeStream(inputStream);
-            if (userBitmap != null) {
-                userImageView.setImageBitmap(userBitmap);
-            } else {
-                Log.e(TAG, "Failed to decode bitmap from the image URI for user image.");
-            }
+    private InputStream openImage(Uri uri) throws IOException {
+        InputStream inputStream = getContentResolver().openInputStream(uri);
+        if (inputStream == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        return inputStream;
+    }
+
+    /**
+     * Streams the image down to the working size in strips, or falls back to a subsampled
+     * decode for formats the region decoder cannot read.
+     */
+    private Bitmap decodeWorkingBitmap(Uri uri) throws IOException {
+        try (InputStream in = openImage(uri)) {
+            return StripDownscaler.decode(in, SketchImage.FULL_SIZE);
         } catch (IOException e) {
-            Log.e(TAG, "Error loading user image: " + e.getMessage());
+            Log.d(TAG, "Region decoding unavailable, decoding subsampled: " + e.getMessage());
+        }
+        return decodeSampledBitmap(uri, SketchImage.FULL_SIZE, SketchImage.FULL_SIZE);
+    }
+
+    private Bitmap decodeSampledBitmap(Uri uri, int reqWidth, int reqHeight) throws IOException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = openImage(uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+
+        options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+        options.inJustDecodeBounds = false;
+        try (InputStream in = openImage(uri)) {
+            return BitmapFactory.decodeStream(in, null, options);
         }
     }
 
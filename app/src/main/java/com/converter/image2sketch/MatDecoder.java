@@ -0,0 +1,112 @@
+package com.converter.image2sketch;
+
+import android.content.ContentResolver;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a JPEG straight into a Mat at a working size. The image is reduced by 2, 4 or
+ * 8 inside libjpeg through the {@code IMREAD_REDUCED_*} modes, which skips most of the
+ * IDCT work, and the rest of the way with INTER_AREA. EXIF orientation is ignored, as it
+ * is by {@link BitmapFactory}, so both decoders agree on the pixels. Other formats would
+ * be decoded at full size first, so they are left to {@link StripDownscaler}. The file
+ * is copied into native memory for {@code imdecode} a chunk at a time and never held on
+ * the Java heap.
+ */
+public final class MatDecoder {
+    private static final int[] REDUCED_COLOR = {
+            Imgcodecs.IMREAD_COLOR, Imgcodecs.IMREAD_REDUCED_COLOR_2,
+            Imgcodecs.IMREAD_REDUCED_COLOR_4, Imgcodecs.IMREAD_REDUCED_COLOR_8};
+    private static final int[] REDUCED_GRAYSCALE = {
+            Imgcodecs.IMREAD_GRAYSCALE, Imgcodecs.IMREAD_REDUCED_GRAYSCALE_2,
+            Imgcodecs.IMREAD_REDUCED_GRAYSCALE_4, Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8};
+
+    private MatDecoder() {
+    }
+
+    /**
+     * Returns an RGBA, or for {@code gray} a CV_8UC1, Mat whose longer side is at most
+     * {@code maxSize}, or null if {@code uri} is not a JPEG OpenCV can decode.
+     */
+    public static Mat decode(ContentResolver resolver, Uri uri, int maxSize, boolean gray) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = open(resolver, uri)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+        if (width <= 0 || height <= 0 || !"image/jpeg".equals(bounds.outMimeType)) {
+            return null;
+        }
+        int[] target = AspectFit.fit(width, height, maxSize);
+        int targetWidth = target[0];
+        int targetHeight = target[1];
+        int reduction = 0;
+        while (reduction < 3 && width >> (reduction + 1) >= targetWidth && height >> (reduction + 1) >= targetHeight) {
+            reduction++;
+        }
+
+        int flags = (gray ? REDUCED_GRAYSCALE : REDUCED_COLOR)[reduction] | Imgcodecs.IMREAD_IGNORE_ORIENTATION;
+        MatOfByte buffer = read(resolver, uri);
+        Mat decoded = Imgcodecs.imdecode(buffer, flags);
+        buffer.release();
+        if (decoded.empty()) {
+            decoded.release();
+            return null;
+        }
+
+        if (decoded.cols() != targetWidth || decoded.rows() != targetHeight) {
+            Mat resized = new Mat();
+            Imgproc.resize(decoded, resized, new Size(targetWidth, targetHeight), 0, 0, Imgproc.INTER_AREA);
+            decoded.release();
+            decoded = resized;
+        }
+        if (gray) {
+            return decoded;
+        }
+        Mat rgba = new Mat();
+        Imgproc.cvtColor(decoded, rgba, Imgproc.COLOR_BGR2RGBA);
+        decoded.release();
+        return rgba;
+    }
+
+    private static MatOfByte read(ContentResolver resolver, Uri uri) throws IOException {
+        MatOfByte encoded = new MatOfByte();
+        byte[] buffer = new byte[1 << 16];
+        Mat chunk = new Mat(buffer.length, 1, CvType.CV_8UC1);
+        try (InputStream in = open(resolver, uri)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                chunk.put(0, 0, buffer, 0, read);
+                Mat rows = chunk.rowRange(0, read);
+                encoded.push_back(rows);
+                rows.release();
+            }
+        } catch (IOException e) {
+            encoded.release();
+            throw e;
+        } finally {
+            chunk.release();
+        }
+        return encoded;
+    }
+
+    private static InputStream open(ContentResolver resolver, Uri uri) throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,191 @@
+package com.converter.image2sketch;
+
+import android.util.Log;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Owns the Mats created during one render and releases their native buffers when it is
+ * closed, instead of leaving them to the finalizer. Use it with try-with-resources:
+ *
+ * <pre>
+ * try (MatScope scope = new MatScope()) {
+ *     Mat gray = scope.newMat();
+ *     ...
+ *     return scope.detach(result);
+ * }
+ * </pre>
+ *
+ * With a {@link BufferPool} the scope draws sized Mats from it and hands every Mat back
+ * to it on close rather than freeing it.
+ *
+ * In debug mode every tracked Mat remembers where it was created; adopting a Mat that
+ * another scope already owns, releasing one twice, and detached Mats still holding
+ * native memory at {@link #reportLeaks()} are logged with that stack.
+ */
+public final class MatScope implements AutoCloseable {
+    private static final String TAG = "MatScope";
+
+    private static volatile boolean debug;
+    private static final Map<Mat, Throwable> owned = new IdentityHashMap<>();
+    private static final Map<Mat, Throwable> detached = new IdentityHashMap<>();
+
+    private final BufferPool pool;
+    private final List<Mat> mats = new ArrayList<>();
+    private boolean closed;
+
+    public MatScope() {
+        this(null);
+    }
+
+    public MatScope(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    public static void setDebug(boolean enabled) {
+        debug = enabled;
+        if (!enabled) {
+            synchronized (owned) {
+                owned.clear();
+                detached.clear();
+            }
+        }
+    }
+
+    public Mat newMat() {
+        return adopt(new Mat());
+    }
+
+    public Mat newMat(int rows, int cols, int type) {
+        return adopt(pool != null ? pool.acquireMat(rows, cols, type) : new Mat(rows, cols, type));
+    }
+
+    /**
+     * Makes this scope responsible for releasing {@code mat}.
+     */
+    public <T extends Mat> T adopt(T mat) {
+        if (closed) {
+            throw new IllegalStateException("MatScope is closed");
+        }
+        if (debug) {
+            synchronized (owned) {
+                Throwable previous = owned.put(mat, new Throwable("Mat created here"));
+                if (previous != null) {
+                    Log.w(TAG, "Mat is owned by two scopes and will be released twice", previous);
+                }
+                detached.remove(mat);
+            }
+        }
+        mats.add(mat);
+        return mat;
+    }
+
+    /**
+     * Hands {@code mat} to the caller, who must release it or pass it to an owner such as
+     * the {@link StageCache}.
+     */
+    public <T extends Mat> T detach(T mat) {
+        if (remove(mat) && debug) {
+            synchronized (owned) {
+                Throwable site = owned.remove(mat);
+                detached.put(mat, site != null ? site : new Throwable("Mat detached here"));
+            }
+        }
+        return mat;
+    }
+
+    /**
+     * Releases {@code mat} before the scope closes, e.g. to lower the peak of a long render.
+     */
+    public void release(Mat mat) {
+        if (!remove(mat)) {
+            if (debug) {
+                Log.w(TAG, "Releasing a Mat this scope does not own", new Throwable("Released here"));
+            }
+            return;
+        }
+        forget(mat);
+        dispose(mat);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            if (debug) {
+                Log.w(TAG, "MatScope closed twice", new Throwable("Closed here"));
+            }
+            return;
+        }
+        closed = true;
+        for (Mat mat : mats) {
+            forget(mat);
+            dispose(mat);
+        }
+        mats.clear();
+    }
+
+    /**
+     * Logs every detached Mat that still holds native memory. Only cached stages are
+     * expected to show up here; anything else is a leak. Does nothing outside debug mode.
+     */
+    public static void reportLeaks() {
+        if (!debug) {
+            return;
+        }
+        synchronized (owned) {
+            int live = 0;
+            for (Map.Entry<Mat, Throwable> entry : new ArrayList<>(detached.entrySet())) {
+                if (entry.getKey().dataAddr() == 0) {
+                    detached.remove(entry.getKey());
+                } else {
+                    live++;
+                    Log.w(TAG, "Live detached Mat " + entry.getKey(), entry.getValue());
+                }
+            }
+            Log.d(TAG, live + " detached Mats live, " + owned.size() + " owned by open scopes");
+        }
+    }
+
+    /**
+     * Called by {@link BufferPool} when it takes {@code mat} back; a detached Mat that ends
+     * up idle in a pool is no longer the caller's to release.
+     */
+    static void recycled(Mat mat) {
+        if (debug) {
+            synchronized (owned) {
+                detached.remove(mat);
+            }
+        }
+    }
+
+    private boolean remove(Mat mat) {
+        for (int i = mats.size() - 1; i >= 0; i--) {
+            if (mats.get(i) == mat) {
+                mats.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void dispose(Mat mat) {
+        if (pool != null) {
+            pool.recycle(mat);
+        } else {
+            mat.release();
+        }
+    }
+
+    private static void forget(Mat mat) {
+        if (debug) {
+            synchronized (owned) {
+                owned.remove(mat);
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.converter.image2sketch;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Renders the {@link SketchImage} effects with every intermediate kept as a {@link Mat}.
+ * The source is converted from a Bitmap once and the result is converted back once.
+ * Each effect is evaluated from its {@link EffectGraph} plan: every stage runs once per
+ * request and is released as soon as its last reader has run.
+ * Gray stages are single CV_8UC1 planes; they are expanded to RGBA only where they are
+ * mixed with a colour image, or by the final conversion to a Bitmap. A single-channel
+ * source is taken as its own gray stage.
+ * Every render runs in a {@link MatScope}: temporaries are drawn from and returned through
+ * it, and stages handed to the {@link StageCache} or to the caller are detached from it.
+ */
+public class MatSketchEngine {
+
+    /**
+     * Produces blur stages in place of the blur engine, for callers that compute them
+     * somewhere else, such as on a reduced copy of a larger image.
+     */
+    interface BlurStage {
+        /**
+         * Writes the result of blur {@code node}, whose input is {@code plane}, into
+         * {@code dst}, which is allocated like {@code plane}.
+         */
+        void blur(EffectGraph.Node node, Mat plane, Mat dst, int thickness);
+    }
+
+    private final StageCache stageCache;
+    private final BlurEngine blurEngine;
+    private final TileExecutor executor;
+    private final BufferPool pool;
+    private final DodgeBlender dodgeBlender;
+    private CancellationSignal signal;
+    private MatScope scope;
+    private BlurStage blurStage;
+
+    public MatSketchEngine(StageCache stageCache, BlurEngine blurEngine, TileExecutor executor, BufferPool pool) {
+        this.stageCache = stageCache;
+        this.blurEngine = blurEngine;
+        this.executor = executor;
+        this.pool = pool;
+        this.dodgeBlender = new DodgeBlender(executor, pool);
+    }
+
+    public Bitmap render(Bitmap source, int effectType, int thickness, CancellationSignal signal) {
+        Mat result = renderMat(source, effectType, thickness, signal);
+        Bitmap bitmap = Bitmap.createBitmap(result.cols(), result.rows(), Bitmap.Config.ARGB_8888);
+        Utils.matToBitmap(result, bitmap);
+        if (!isCached(result)) {
+            pool.recycle(result);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Routes every blur stage of later renders through {@code blurStage}, or back to the
+     * blur engine for {@code null}.
+     */
+    void setBlurStage(BlurStage blurStage) {
+        this.blurStage = blurStage;
+    }
+
+    /**
+     * Returns the effect as an RGBA or, for gray results, a single-channel Mat. The result
+     * may be a cached stage owned by the {@link StageCache}, so callers must not release it.
+     * If {@code signal} is cancelled the render stops at the next stage boundary with an
+     * OperationCanceledException.
+     */
+    public Mat renderMat(Bitmap source, int effectType, int thickness, CancellationSignal signal) {
+        this.signal = signal;
+        try (MatScope scope = new MatScope(pool)) {
+            this.scope = scope;
+            return renderMat(getSource(source), effectType, thickness);
+        } finally {
+            this.scope = null;
+            this.signal = null;
+        }
+    }
+
+    /**
+     * Like {@link #renderMat(Bitmap, int, int, CancellationSignal)}, but the result is always
+     * a Mat the caller owns and must release.
+     */
+    public Mat renderDetachedMat(Bitmap source, int effectType, int thickness, CancellationSignal signal) {
+        Mat result = renderMat(source, effectType, thickness, signal);
+        return isCached(result) ? result.clone() : result;
+    }
+
+    /**
+     * Renders {@code src}, which is not a cached stage, and returns a new Mat the caller
+     * owns, or {@code src} itself for an unknown effect.
+     */
+    public Mat renderMat(Mat src, int effectType, int thickness, CancellationSignal signal) {
+        this.signal = signal;
+        try (MatScope scope = new MatScope(pool)) {
+            this.scope = scope;
+            return renderMat(src, effectType, thickness);
+        } finally {
+            this.scope = null;
+            this.signal = null;
+        }
+    }
+
+    /**
+     * Evaluates the plan inside the current scope. If a stage fails, closing the scope
+     * gives back every temporary still alive.
+     */
+    private Mat renderMat(Mat src, int effectType, int thickness) {
+        EffectGraph.Plan plan = EffectGraph.planFor(effectType);
+        Mat[] memo = new Mat[EffectGraph.size()];
+        int[] uses = plan.uses.clone();
+        Mat result = evaluate(plan.root, src, thickness, memo, uses);
+        return result == src || isCached(result) ? result : scope.detach(result);
+    }
+
+    private Mat evaluate(EffectGraph.Node node, Mat src, int thickness, Mat[] memo, int[] uses) {
+        Mat mat = memo[node.id];
+        if (mat != null) {
+            return mat;
+        }
+        if (node.op == EffectGraph.SOURCE) {
+            memo[node.id] = src;
+            return src;
+        }
+
+        Mat first = evaluate(node.first, src, thickness, memo, uses);
+        Mat second = node.second != null ? evaluate(node.second, src, thickness, memo, uses) : null;
+        throwIfCanceled();
+        switch (node.op) {
+            case EffectGraph.GRAY:
+                mat = getGray(first);
+                break;
+            case EffectGraph.INVERT:
+                mat = getInverted(first);
+                break;
+            case EffectGraph.BLUR:
+                mat = scope.newMat(first.rows(), first.cols(), first.type());
+                if (blurStage != null) {
+                    blurStage.blur(node, first, mat, thickness);
+                } else {
+                    blur(first, mat, thickness);
+                }
+                break;
+            case EffectGraph.DODGE:
+                mat = scope.newMat(first.rows(), first.cols(), first.type());
+                dodgeBlender.blend(first, second, mat);
+                break;
+            case EffectGraph.DIVIDE:
+                mat = scope.newMat(first.rows(), first.cols(), first.type());
+                executor.forBands(mat, first.type(), (in, out) -> Core.divide(in[0], in[1], out, 256), first, second);
+                break;
+            case EffectGraph.MIX:
+                mat = mix(first, second);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown stage " + node);
+        }
+        memo[node.id] = mat;
+
+        consume(node.first, src, memo, uses);
+        if (node.second != null) {
+            consume(node.second, src, memo, uses);
+        }
+        return mat;
+    }
+
+    private void consume(EffectGraph.Node node, Mat src, Mat[] memo, int[] uses) {
+        if (--uses[node.id] == 0 && memo[node.id] != src) {
+            releaseIfTemporary(memo[node.id]);
+            memo[node.id] = null;
+        }
+    }
+
+    private Mat getSource(Bitmap source) {
+        Mat src = stageCache.getMat(StageCache.SOURCE_MAT);
+        if (src == null) {
+            src = scope.newMat();
+            Utils.bitmapToMat(source, src);
+            stageCache.put(StageCache.SOURCE_MAT, scope.detach(src));
+        }
+        return src;
+    }
+
+    private boolean isCached(Mat mat) {
+        return mat == stageCache.getMat(StageCache.SOURCE_MAT) || mat == stageCache.getMat(StageCache.GRAY_MAT)
+                || mat == stageCache.getMat(StageCache.INVERTED);
+    }
+
+    private Mat getGray(Mat image) {
+        if (image.channels() == 1) {
+            return image;
+        }
+        if (image != stageCache.getMat(StageCache.SOURCE_MAT)) {
+            return toGrayScale(image);
+        }
+        Mat gray = stageCache.getMat(StageCache.GRAY_MAT);
+        if (gray == null) {
+            gray = toGrayScale(image);
+            stageCache.put(StageCache.GRAY_MAT, scope.detach(gray));
+        }
+        return gray;
+    }
+
+    private Mat getInverted(Mat gray) {
+        if (gray != stageCache.getMat(StageCache.GRAY_MAT)) {
+            return toInverted(gray);
+        }
+        Mat inverted = stageCache.getMat(StageCache.INVERTED);
+        if (inverted == null) {
+            inverted = toInverted(gray);
+            stageCache.put(StageCache.INVERTED, scope.detach(inverted));
+        }
+        return inverted;
+    }
+
+    private Mat toInverted(Mat gray) {
+        Mat inverted = scope.newMat(gray.rows(), gray.cols(), gray.type());
+        executor.forBands(inverted, gray.type(), (in, out) -> Core.bitwise_not(in[0], out), gray);
+        return inverted;
+    }
+
+    private void throwIfCanceled() {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+    }
+
+    private void releaseIfTemporary(Mat mat) {
+        if (!isCached(mat)) {
+            scope.release(mat);
+        }
+    }
+
+    private void blur(Mat plane, Mat dst, int thickness) {
+        BlurCascade cascade = stageCache.getBlurCascade(plane, blurEngine);
+        int[] integral = cascade == null ? stageCache.getIntegral(plane, blurEngine) : null;
+        if (cascade != null) {
+            cascade.blur(plane, dst, thickness);
+        } else if (integral != null) {
+            blurEngine.blurIntegral(plane, integral, dst, thickness);
+        } else {
+            blurEngine.blur(plane, dst, thickness);
+        }
+    }
+
+    private Mat toGrayScale(Mat src) {
+        Mat gray = scope.newMat(src.rows(), src.cols(), CvType.CV_8UC1);
+        executor.forBands(gray, CvType.CV_8UC1, (in, out) -> Imgproc.cvtColor(in[0], out, Imgproc.COLOR_RGBA2GRAY), src);
+        return gray;
+    }
+
+    /**
+     * Averages two images; a gray plane mixed with a colour image is expanded to RGBA first.
+     */
+    private Mat mix(Mat first, Mat second) {
+        Mat a = expand(first, second.channels());
+        Mat b = expand(second, first.channels());
+        Mat mixed = scope.newMat(a.rows(), a.cols(), a.type());
+        executor.forBands(mixed, a.type(), (in, out) -> Core.addWeighted(in[0], 0.5, in[1], 0.5, 0, out), a, b);
+        if (a != first) {
+            scope.release(a);
+        }
+        if (b != second) {
+            scope.release(b);
+        }
+        return mixed;
+    }
+
+    private Mat expand(Mat mat, int channels) {
+        if (mat.channels() >= channels) {
+            return mat;
+        }
+        Mat rgba = scope.newMat(mat.rows(), mat.cols(), CvType.CV_8UC4);
+        executor.forBands(rgba, CvType.CV_8UC4, (in, out) -> Imgproc.cvtColor(in[0], out, Imgproc.COLOR_GRAY2RGBA), mat);
+        return rgba;
+    }
+}
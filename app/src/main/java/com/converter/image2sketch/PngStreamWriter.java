@@ -0,0 +1,176 @@
+package com.converter.image2sketch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes an opaque 8-bit RGB or grayscale PNG a few rows at a time, so an image far
+ * larger than the heap can be written as it is rendered. Colour rows are given as RGBA
+ * bytes, alpha is dropped; gray rows as one byte per pixel. The writer holds a native
+ * {@link Deflater}, so it must be closed, also when writing fails part way.
+ */
+public class PngStreamWriter implements Closeable {
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int FILTER_SUB = 1;
+    private static final int COLOR_TYPE_GRAY = 0;
+    private static final int COLOR_TYPE_RGB = 2;
+
+    private final DataOutputStream out;
+    private final int width;
+    private final int height;
+    private final boolean gray;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final DeflaterOutputStream idat;
+    private final byte[] scanline;
+    private int rowsWritten;
+
+    public PngStreamWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, false);
+    }
+
+    public PngStreamWriter(OutputStream out, int width, int height, boolean gray) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.gray = gray;
+        this.scanline = new byte[1 + width * (gray ? 1 : 3)];
+        this.idat = new DeflaterOutputStream(new ChunkStream("IDAT"), deflater, CHUNK_SIZE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream fields = new DataOutputStream(header);
+        fields.writeInt(width);
+        fields.writeInt(height);
+        fields.writeByte(8);
+        fields.writeByte(gray ? COLOR_TYPE_GRAY : COLOR_TYPE_RGB);
+        fields.writeByte(0);
+        fields.writeByte(0);
+        fields.writeByte(0);
+        try {
+            this.out.write(SIGNATURE);
+            writeChunk("IHDR", header.toByteArray(), header.size());
+        } catch (IOException e) {
+            deflater.end();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends {@code rows} rows of tightly packed RGBA, or for a gray image single-byte,
+     * pixels starting at {@code offset}.
+     */
+    public void writeRows(byte[] pixels, int offset, int rows) throws IOException {
+        if (rowsWritten + rows > height) {
+            throw new IllegalStateException("Too many rows: " + (rowsWritten + rows) + " > " + height);
+        }
+        if (gray) {
+            writeGrayRows(pixels, offset, rows);
+        } else {
+            writeRgbRows(pixels, offset, rows);
+        }
+        rowsWritten += rows;
+    }
+
+    private void writeGrayRows(byte[] gray, int offset, int rows) throws IOException {
+        for (int y = 0; y < rows; y++) {
+            scanline[0] = FILTER_SUB;
+            int in = offset + y * width;
+            int prev = 0;
+            for (int x = 0; x < width; x++) {
+                int value = gray[in + x] & 0xFF;
+                scanline[x + 1] = (byte) (value - prev);
+                prev = value;
+            }
+            idat.write(scanline);
+        }
+    }
+
+    private void writeRgbRows(byte[] rgba, int offset, int rows) throws IOException {
+        for (int y = 0; y < rows; y++) {
+            scanline[0] = FILTER_SUB;
+            int in = offset + y * width * 4;
+            int prevR = 0, prevG = 0, prevB = 0;
+            for (int x = 0, o = 1; x < width; x++, in += 4) {
+                int r = rgba[in] & 0xFF;
+                int g = rgba[in + 1] & 0xFF;
+                int b = rgba[in + 2] & 0xFF;
+                scanline[o++] = (byte) (r - prevR);
+                scanline[o++] = (byte) (g - prevG);
+                scanline[o++] = (byte) (b - prevB);
+                prevR = r;
+                prevG = g;
+                prevB = b;
+            }
+            idat.write(scanline);
+        }
+    }
+
+    /**
+     * Flushes the compressed data and writes the trailer. Every row must have been written.
+     */
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Wrote " + rowsWritten + " of " + height + " rows");
+        }
+        idat.finish();
+        deflater.end();
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    /**
+     * Frees the deflater. The underlying stream is left open, and an unfinished image is
+     * left truncated.
+     */
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Wraps whatever the deflater emits into chunks of the given type.
+     */
+    private class ChunkStream extends OutputStream {
+        private final String type;
+
+        ChunkStream(String type) {
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            if (off == 0) {
+                writeChunk(type, b, len);
+            } else {
+                byte[] copy = new byte[len];
+                System.arraycopy(b, off, copy, 0, len);
+                writeChunk(type, copy, len);
+            }
+        }
+    }
+}
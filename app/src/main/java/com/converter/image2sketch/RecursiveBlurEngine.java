@@ -0,0 +1,247 @@
+package com.converter.image2sketch;
+
+import org.opencv.core.Mat;
+
+/**
+ * Deriche's fourth-order recursive Gaussian. Every line is filtered by a causal and an
+ * anti-causal IIR pass whose cost does not depend on sigma, so all thickness values cost
+ * the same. Thickness values too small for the approximation go to OpenCV directly,
+ * where the kernel is only a few taps wide anyway.
+ */
+public class RecursiveBlurEngine implements BlurEngine {
+    private static final int MIN_THICKNESS = 3;
+    private static final double MIN_SIGMA = BlurEngine.sigmaFor(MIN_THICKNESS);
+
+    private final TileExecutor executor;
+    private final BufferPool pool;
+    private final BlurEngine smallKernelEngine;
+
+    public RecursiveBlurEngine() {
+        this(TileExecutor.SEQUENTIAL);
+    }
+
+    public RecursiveBlurEngine(TileExecutor executor) {
+        this(executor, new BufferPool());
+    }
+
+    public RecursiveBlurEngine(TileExecutor executor, BufferPool pool) {
+        this.executor = executor;
+        this.pool = pool;
+        this.smallKernelEngine = new GaussianBlurEngine(executor);
+    }
+
+    @Override
+    public void blur(Mat src, Mat dst, int thickness) {
+        if (thickness < MIN_THICKNESS) {
+            smallKernelEngine.blur(src, dst, thickness);
+            return;
+        }
+        blurSigma(src, dst, BlurEngine.sigmaFor(thickness));
+    }
+
+    /**
+     * A cascade would only add re-blur steps, since a fresh blur already costs the same
+     * for every sigma.
+     */
+    @Override
+    public boolean isCascadable() {
+        return false;
+    }
+
+    @Override
+    public void blurSigma(Mat src, Mat dst, double sigma) {
+        if (sigma < MIN_SIGMA) {
+            smallKernelEngine.blurSigma(src, dst, sigma);
+            return;
+        }
+
+        int width = src.cols();
+        int height = src.rows();
+        int channels = src.channels();
+        int length = width * height * channels;
+        byte[] bytes = pool.acquireBytes(length);
+        float[] data = pool.acquireFloats(length);
+
+        src.get(0, 0, bytes);
+        for (int i = 0; i < length; i++) {
+            data[i] = bytes[i] & 0xFF;
+        }
+
+        blur(data, width, height, channels, sigma, executor, pool);
+
+        for (int i = 0; i < length; i++) {
+            int value = (int) (data[i] + 0.5f);
+            bytes[i] = (byte) (value < 0 ? 0 : (value > 255 ? 255 : value));
+        }
+        dst.create(height, width, src.type());
+        dst.put(0, 0, bytes);
+        pool.recycle(bytes);
+        pool.recycle(data);
+    }
+
+    /**
+     * Blurs interleaved samples in place. Borders are mirrored like OpenCV's default
+     * {@code BORDER_REFLECT_101} for up to four sigma, and repeat the edge value beyond that.
+     */
+    public static void blur(float[] data, int width, int height, int channels, double sigma) {
+        blur(data, width, height, channels, sigma, TileExecutor.SEQUENTIAL);
+    }
+
+    /**
+     * Same as {@link #blur(float[], int, int, int, double)} with the row pass and then the
+     * column pass split across {@code executor}; lines are independent within a pass.
+     */
+    public static void blur(float[] data, int width, int height, int channels, double sigma, TileExecutor executor) {
+        blur(data, width, height, channels, sigma, executor, new BufferPool(0));
+    }
+
+    /**
+     * Same as {@link #blur(float[], int, int, int, double, TileExecutor)} with the line
+     * buffers of each band taken from {@code pool}.
+     */
+    public static void blur(float[] data, int width, int height, int channels, double sigma, TileExecutor executor,
+                            BufferPool pool) {
+        Coefficients k = new Coefficients(sigma);
+        int pad = (int) Math.ceil(4 * sigma);
+        int length = Math.max(width, height) + 2 * pad;
+        int stride = width * channels;
+
+        executor.forRows(height, (from, to) -> {
+            double[] line = pool.acquireDoubles(length);
+            double[] causal = pool.acquireDoubles(length);
+            double[] anticausal = pool.acquireDoubles(length);
+            for (int y = from; y < to; y++) {
+                for (int c = 0; c < channels; c++) {
+                    filterLine(data, y * stride + c, channels, width, pad, k, line, causal, anticausal);
+                }
+            }
+            pool.recycle(line);
+            pool.recycle(causal);
+            pool.recycle(anticausal);
+        });
+        executor.forRows(stride, (from, to) -> {
+            double[] line = pool.acquireDoubles(length);
+            double[] causal = pool.acquireDoubles(length);
+            double[] anticausal = pool.acquireDoubles(length);
+            for (int x = from; x < to; x++) {
+                filterLine(data, x, stride, height, pad, k, line, causal, anticausal);
+            }
+            pool.recycle(line);
+            pool.recycle(causal);
+            pool.recycle(anticausal);
+        });
+    }
+
+    private static void filterLine(float[] data, int offset, int step, int size, int pad, Coefficients k,
+                                   double[] line, double[] causal, double[] anticausal) {
+        int mirror = Math.min(pad, size - 1);
+        int count = size + 2 * mirror;
+        for (int i = 0, j = offset; i < size; i++, j += step) {
+            line[mirror + i] = data[j];
+        }
+        for (int i = 1; i <= mirror; i++) {
+            line[mirror - i] = line[mirror + i];
+            line[mirror + size - 1 + i] = line[mirror + size - 1 - i];
+        }
+
+        double x0 = line[0];
+        double y1 = x0 * k.causalGain;
+        double y2 = y1;
+        double y3 = y1;
+        double y4 = y1;
+        double x1 = x0;
+        double x2 = x0;
+        double x3 = x0;
+        for (int i = 0; i < count; i++) {
+            double x = line[i];
+            double y = k.n0 * x + k.n1 * x1 + k.n2 * x2 + k.n3 * x3
+                    - k.d1 * y1 - k.d2 * y2 - k.d3 * y3 - k.d4 * y4;
+            causal[i] = y;
+            x3 = x2;
+            x2 = x1;
+            x1 = x;
+            y4 = y3;
+            y3 = y2;
+            y2 = y1;
+            y1 = y;
+        }
+
+        double xn = line[count - 1];
+        y1 = xn * k.anticausalGain;
+        y2 = y1;
+        y3 = y1;
+        y4 = y1;
+        x1 = xn;
+        x2 = xn;
+        x3 = xn;
+        double x4 = xn;
+        for (int i = count - 1; i >= 0; i--) {
+            double y = k.m1 * x1 + k.m2 * x2 + k.m3 * x3 + k.m4 * x4
+                    - k.d1 * y1 - k.d2 * y2 - k.d3 * y3 - k.d4 * y4;
+            anticausal[i] = y;
+            x4 = x3;
+            x3 = x2;
+            x2 = x1;
+            x1 = line[i];
+            y4 = y3;
+            y3 = y2;
+            y2 = y1;
+            y1 = y;
+        }
+
+        for (int i = 0, j = offset; i < size; i++, j += step) {
+            data[j] = (float) ((causal[mirror + i] + anticausal[mirror + i]) * k.scale);
+        }
+    }
+
+    private static class Coefficients {
+        final double n0, n1, n2, n3;
+        final double m1, m2, m3, m4;
+        final double d1, d2, d3, d4;
+        final double causalGain, anticausalGain, scale;
+
+        Coefficients(double sigma) {
+            double a0 = 1.6800, a1 = 3.7350, b0 = 1.7830, b1 = 1.7230;
+            double c0 = -0.6803, c1 = -0.2598, w0 = 0.6318, w1 = 1.9970;
+
+            double e0 = Math.exp(-b0 / sigma);
+            double e1 = Math.exp(-b1 / sigma);
+            double cw0 = Math.cos(w0 / sigma), sw0 = Math.sin(w0 / sigma);
+            double cw1 = Math.cos(w1 / sigma), sw1 = Math.sin(w1 / sigma);
+
+            double n0 = a0 + c0;
+            double n1 = e1 * (c1 * sw1 - (c0 + 2 * a0) * cw1) + e0 * (a1 * sw0 - (2 * c0 + a0) * cw0);
+            double n2 = 2 * e0 * e1 * ((a0 + c0) * cw1 * cw0 - a1 * cw1 * sw0 - c1 * cw0 * sw1)
+                    + c0 * e0 * e0 + a0 * e1 * e1;
+            double n3 = e1 * e0 * e0 * (c1 * sw1 - c0 * cw1) + e0 * e1 * e1 * (a1 * sw0 - a0 * cw0);
+            double d1 = -2 * e1 * cw1 - 2 * e0 * cw0;
+            double d2 = 4 * cw1 * cw0 * e0 * e1 + e1 * e1 + e0 * e0;
+            double d3 = -2 * cw0 * e0 * e1 * e1 - 2 * cw1 * e1 * e0 * e0;
+            double d4 = e0 * e0 * e1 * e1;
+            double m1 = n1 - d1 * n0;
+            double m2 = n2 - d2 * n0;
+            double m3 = n3 - d3 * n0;
+            double m4 = -d4 * n0;
+
+            double denominator = 1 + d1 + d2 + d3 + d4;
+            double causalSum = (n0 + n1 + n2 + n3) / denominator;
+            double anticausalSum = (m1 + m2 + m3 + m4) / denominator;
+
+            this.n0 = n0;
+            this.n1 = n1;
+            this.n2 = n2;
+            this.n3 = n3;
+            this.m1 = m1;
+            this.m2 = m2;
+            this.m3 = m3;
+            this.m4 = m4;
+            this.d1 = d1;
+            this.d2 = d2;
+            this.d3 = d3;
+            this.d4 = d4;
+            this.causalGain = causalSum;
+            this.anticausalGain = anticausalSum;
+            this.scale = (1 / (causalSum + anticausalSum));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.converter.image2sketch;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Finished renders keyed by source bitmap, effect, thickness and working size, evicted
+ * least recently used first once their byte count exceeds the budget. A request with no
+ * exact entry is served by downsampling a cached render of the same settings at a larger
+ * working size. Cached bitmaps are shared and must not be modified or recycled.
+ */
+public class RenderCache {
+    private static final class Key {
+        final Bitmap source;
+        final int generation;
+        final int effectType;
+        final int thickness;
+        final int size;
+
+        Key(Bitmap source, int effectType, int thickness, int size) {
+            this.source = source;
+            this.generation = source.getGenerationId();
+            this.effectType = effectType;
+            this.thickness = thickness;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return source == key.source && generation == key.generation && effectType == key.effectType
+                    && thickness == key.thickness && size == key.size;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(source);
+            hash = hash * 31 + generation;
+            hash = hash * 31 + effectType;
+            hash = hash * 31 + thickness;
+            return hash * 31 + size;
+        }
+    }
+
+    private final LruCache<Key, Bitmap> renders;
+    private final ConcurrentSkipListSet<Integer> sizes = new ConcurrentSkipListSet<>();
+
+    public RenderCache(int maxBytes) {
+        renders = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * An eighth of the heap, which holds a dozen 800px renders on a 256MB heap.
+     */
+    public static int defaultBudget() {
+        return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    public Bitmap get(Bitmap source, int effectType, int thickness, int size) {
+        Bitmap render = renders.get(new Key(source, effectType, thickness, size));
+        if (render != null) {
+            return render;
+        }
+        for (Integer larger : sizes.tailSet(size, false)) {
+            Bitmap full = renders.get(new Key(source, effectType, thickness, larger));
+            if (full != null) {
+                render = AspectFit.downscale(full, size);
+                if (render != full) {
+                    put(source, effectType, thickness, size, render);
+                }
+                return render;
+            }
+        }
+        return null;
+    }
+
+    public void put(Bitmap source, int effectType, int thickness, int size, Bitmap render) {
+        sizes.add(size);
+        renders.put(new Key(source, effectType, thickness, size), render);
+    }
+
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            renders.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            renders.trimToSize(renders.maxSize() / 2);
+        }
+    }
+
+    public void clear() {
+        renders.evictAll();
+    }
+}
@@ -0,0 +1,132 @@
+package com.converter.image2sketch;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Renders {@link SketchImage} effects on a background thread, latest request wins.
+ * Submitting a new (effect, thickness, quality) request drops any queued request and
+ * cancels the running one at its next stage boundary; results are delivered on the
+ * main thread.
+ */
+public class RenderScheduler {
+    private static final String TAG = "RenderScheduler";
+
+    public interface Callback {
+        void onRendered(Bitmap bitmap);
+    }
+
+    private static class Request {
+        final int effectType;
+        final int thickness;
+        final int quality;
+        final CancellationSignal signal = new CancellationSignal();
+        volatile Callback callback;
+
+        Request(int effectType, int thickness, int quality, Callback callback) {
+            this.effectType = effectType;
+            this.thickness = thickness;
+            this.quality = quality;
+            this.callback = callback;
+        }
+
+        boolean matches(int effectType, int thickness, int quality) {
+            return this.effectType == effectType && this.thickness == thickness && this.quality == quality;
+        }
+    }
+
+    private final SketchImage sketchImage;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Object lock = new Object();
+    private Request pending;
+    private Request running;
+    private boolean draining;
+
+    public RenderScheduler(SketchImage sketchImage) {
+        this.sketchImage = sketchImage;
+    }
+
+    public void submit(int effectType, int thickness, Callback callback) {
+        submit(effectType, thickness, SketchImage.QUALITY_FULL, callback);
+    }
+
+    public void submit(int effectType, int thickness, int quality, Callback callback) {
+        synchronized (lock) {
+            if (pending != null && pending.matches(effectType, thickness, quality)) {
+                pending.callback = callback;
+                return;
+            }
+            if (pending == null && running != null && running.matches(effectType, thickness, quality)
+                    && !running.signal.isCanceled()) {
+                running.callback = callback;
+                return;
+            }
+            if (running != null) {
+                running.signal.cancel();
+            }
+            pending = new Request(effectType, thickness, quality, callback);
+            if (!draining) {
+                draining = true;
+                executor.execute(this::drain);
+            }
+        }
+    }
+
+    public void cancel() {
+        synchronized (lock) {
+            pending = null;
+            if (running != null) {
+                running.signal.cancel();
+            }
+        }
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdown();
+    }
+
+    private void drain() {
+        while (true) {
+            Request request;
+            synchronized (lock) {
+                request = pending;
+                pending = null;
+                running = request;
+                if (request == null) {
+                    draining = false;
+                    return;
+                }
+            }
+
+            try {
+                Bitmap bitmap = sketchImage.getImageAs(request.effectType, request.thickness, request.quality, request.signal);
+                deliver(request, bitmap);
+            } catch (OperationCanceledException e) {
+                Log.d(TAG, "Render superseded: effect " + request.effectType + ", thickness " + request.thickness);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Render failed", e);
+            } finally {
+                synchronized (lock) {
+                    running = null;
+                }
+            }
+        }
+    }
+
+    private void deliver(Request request, Bitmap bitmap) {
+        mainHandler.post(() -> {
+            if (!request.signal.isCanceled()) {
+                request.callback.onRendered(bitmap);
+            }
+        });
+    }
+}
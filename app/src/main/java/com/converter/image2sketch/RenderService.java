@@ -0,0 +1,174 @@
+package com.converter.image2sketch;
+
+import android.graphics.Bitmap;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread-safe renders of one image for any number of callers. Requests for the same
+ * (effect, thickness, quality) share a single in-flight render; different keys run in
+ * parallel, each on its own {@link SketchImage}, on a fixed number of worker threads.
+ * A shared render is cancelled only once every caller waiting on it has cancelled.
+ */
+public class RenderService {
+    private static final String TAG = "RenderService";
+
+    private static final class Key {
+        final int effectType;
+        final int thickness;
+        final int quality;
+
+        Key(int effectType, int thickness, int quality) {
+            this.effectType = effectType;
+            this.thickness = thickness;
+            this.quality = quality;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return effectType == key.effectType && thickness == key.thickness && quality == key.quality;
+        }
+
+        @Override
+        public int hashCode() {
+            return (effectType * 31 + thickness) * 31 + quality;
+        }
+    }
+
+    private static final class Flight {
+        final CompletableFuture<Bitmap> result = new CompletableFuture<>();
+        final CancellationSignal signal = new CancellationSignal();
+        private int waiters;
+        private boolean started;
+        private boolean abandoned;
+
+        synchronized boolean join() {
+            if (abandoned) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        synchronized boolean start() {
+            boolean first = !started;
+            started = true;
+            return first;
+        }
+
+        synchronized void leave() {
+            if (--waiters == 0 && !result.isDone()) {
+                abandoned = true;
+                signal.cancel();
+            }
+        }
+    }
+
+    private final BufferPool pool = new BufferPool();
+    private final BlockingQueue<SketchImage> images;
+    private final SketchImage first;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<Key, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Builds one image per worker from {@code builder}, all sharing this service's
+     * buffer pool and the builder's render cache.
+     */
+    public RenderService(SketchImage.Builder builder, int threads) {
+        builder.setBufferPool(pool);
+        images = new ArrayBlockingQueue<>(threads);
+        for (int i = 0; i < threads; i++) {
+            images.add(builder.build());
+        }
+        first = images.peek();
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Returns a future for the render; cancelling it detaches this caller only. The
+     * future completes on a worker thread.
+     */
+    public CompletableFuture<Bitmap> render(int effectType, int thickness, int quality) {
+        Key key = new Key(effectType, thickness, quality);
+        Flight flight;
+        while (true) {
+            flight = flights.computeIfAbsent(key, k -> new Flight());
+            if (flight.join()) {
+                break;
+            }
+            flights.remove(key, flight);
+        }
+        if (flight.start()) {
+            Flight started = flight;
+            executor.execute(() -> run(key, started));
+        }
+        return subscribe(flight);
+    }
+
+    /**
+     * Trims the pool and render cache that all workers share.
+     */
+    public void onTrimMemory(int level) {
+        first.onTrimMemory(level);
+    }
+
+    public void shutdown() {
+        for (Flight flight : flights.values()) {
+            flight.signal.cancel();
+        }
+        executor.shutdown();
+    }
+
+    private CompletableFuture<Bitmap> subscribe(Flight flight) {
+        CompletableFuture<Bitmap> view = new CompletableFuture<Bitmap>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    flight.leave();
+                }
+                return cancelled;
+            }
+        };
+        flight.result.whenComplete((bitmap, error) -> {
+            if (error != null) {
+                view.completeExceptionally(error);
+            } else {
+                view.complete(bitmap);
+            }
+        });
+        return view;
+    }
+
+    private void run(Key key, Flight flight) {
+        SketchImage image = null;
+        try {
+            image = images.take();
+            flight.result.complete(image.getImageAs(key.effectType, key.thickness, key.quality, flight.signal));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            flight.result.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            if (!flight.signal.isCanceled()) {
+                Log.e(TAG, "Render failed: effect " + key.effectType + ", thickness " + key.thickness, e);
+            }
+            flight.result.completeExceptionally(e);
+        } finally {
+            if (image != null) {
+                images.add(image);
+            }
+            flights.remove(key, flight);
+        }
+    }
+}
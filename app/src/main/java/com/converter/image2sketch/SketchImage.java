@@ -2,21 +2,34 @@ package com.converter.image2sketch;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Color;
+import android.os.CancellationSignal;
 import android.util.Log;
 
 import org.opencv.android.Utils;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.Size;
+import org.opencv.core.Range;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.core.Core;
 
-import java.nio.IntBuffer;
-
 
 public class SketchImage {
     private Bitmap originalBitmap;
     private Context context;
+    private int engine;
+    private BlurEngine blurEngine;
+    private BufferPool pool;
+    private StageCache stageCache;
+    private MatSketchEngine matEngine;
+    private DodgeBlender dodgeBlender;
+    private CancellationSignal signal;
+    private MatScope scope;
+    private RenderCache renderCache;
+    private DiskRenderCache diskCache;
+    private String contentKey;
+    private Mat sourceMat;
+    private int blur;
+    private TileExecutor executor;
 
 
     public static final int ORIGINAL_TO_GRAY = 0;
@@ -31,16 +44,101 @@ public class SketchImage {
     public static final int GRAY_TO_SOFT_COLOR_SKETCH = 8;
     public static final int SKETCH_TO_COLORED_SKETCH = 9;
 
+    public static final int ENGINE_BITMAP = 0;
+    public static final int ENGINE_MAT = 1;
+
+    public static final int BLUR_GAUSSIAN = 0;
+    public static final int BLUR_RECURSIVE = 1;
+    public static final int BLUR_INTEGRAL = 2;
+
+    public static final int QUALITY_FULL = 0;
+    public static final int QUALITY_PREVIEW = 1;
+
+    static final int FULL_SIZE = 800;
+    private static final int PREVIEW_SIZE = FULL_SIZE / 4;
+
 
     public static class Builder {
         private Bitmap bitmap;
         private Context context;
+        private int engine = ENGINE_BITMAP;
+        private int blur = BLUR_GAUSSIAN;
+        private boolean parallel;
+        private long poolBudget = BufferPool.DEFAULT_BUDGET;
+        private BufferPool pool;
+        private RenderCache renderCache = new RenderCache(RenderCache.defaultBudget());
+        private DiskRenderCache diskCache;
+        private String contentKey;
+        private Mat sourceMat;
 
         public Builder(Context context, Bitmap bitmap) {
             this.context = context;
             this.bitmap = bitmap;
         }
 
+        public Builder setEngine(int engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        public Builder setBlurEngine(int blur) {
+            this.blur = blur;
+            return this;
+        }
+
+        public Builder setParallel(boolean parallel) {
+            this.parallel = parallel;
+            return this;
+        }
+
+        /**
+         * Bytes of idle Mats and scratch arrays kept between renders; 0 disables pooling.
+         */
+        public Builder setPoolBudget(long bytes) {
+            this.poolBudget = bytes;
+            return this;
+        }
+
+        /**
+         * Shares {@code pool} with other images instead of creating one per image.
+         * Overrides {@link #setPoolBudget(long)}.
+         */
+        public Builder setBufferPool(BufferPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * Cache of finished renders, shared by every image built from this builder;
+         * {@code null} turns caching off.
+         */
+        public Builder setRenderCache(RenderCache renderCache) {
+            this.renderCache = renderCache;
+            return this;
+        }
+
+        /**
+         * Keeps full size renders and the downscaled source in {@code diskCache}, filed under
+         * {@code contentKey} from {@link DiskRenderCache#contentKey}, so they outlive this
+         * image and this process.
+         */
+        public Builder setDiskCache(DiskRenderCache diskCache, String contentKey) {
+            this.diskCache = diskCache;
+            this.contentKey = contentKey;
+            return this;
+        }
+
+        /**
+         * The bitmap's pixels as an RGBA Mat, or a CV_8UC1 Mat for a gray image, used by
+         * {@link #ENGINE_MAT} instead of converting the bitmap. Only for bitmaps that already
+         * fit the 800px working size. Each image keeps its own reference to the pixels, so
+         * the caller may release {@code sourceMat} after building.
+         */
+        public Builder setSourceMat(Mat sourceMat) {
+            this.sourceMat = sourceMat;
+            return this;
+        }
+
         public SketchImage build() {
             return new SketchImage(this);
         }
@@ -49,18 +147,181 @@ public class SketchImage {
     private SketchImage(Builder builder) {
         this.originalBitmap = builder.bitmap;
         this.context = builder.context;
+        this.engine = builder.engine;
+        this.blur = builder.blur;
+        this.executor = builder.parallel ? TileExecutor.shared() : TileExecutor.SEQUENTIAL;
+        this.renderCache = builder.renderCache;
+        if (engine == ENGINE_MAT) {
+            this.sourceMat = shareWorkingMat(builder.sourceMat);
+        }
+        if (builder.contentKey != null) {
+            this.diskCache = builder.diskCache;
+            this.contentKey = builder.contentKey;
+        }
+        this.pool = builder.pool != null ? builder.pool : new BufferPool(builder.poolBudget);
+        this.stageCache = new StageCache(pool);
+        this.blurEngine = createBlurEngine(blur, executor, pool);
+        this.dodgeBlender = new DodgeBlender(executor, pool);
+        this.matEngine = new MatSketchEngine(stageCache, blurEngine, executor, pool);
+    }
+
+    private Mat shareWorkingMat(Mat mat) {
+        if (mat == null) {
+            return null;
+        }
+        if (mat.cols() != originalBitmap.getWidth() || mat.rows() != originalBitmap.getHeight()
+                || Math.max(mat.cols(), mat.rows()) > FULL_SIZE) {
+            throw new IllegalArgumentException("Source Mat " + mat.cols() + "x" + mat.rows()
+                    + " does not match a working size bitmap");
+        }
+        return new Mat(mat, Range.all());
+    }
+
+    private static BlurEngine createBlurEngine(int blur, TileExecutor executor, BufferPool pool) {
+        switch (blur) {
+            case BLUR_RECURSIVE:
+                return new RecursiveBlurEngine(executor, pool);
+            case BLUR_INTEGRAL:
+                return new IntegralBlurEngine(3, executor, pool);
+            default:
+                return new GaussianBlurEngine(executor);
+        }
+    }
+
+    /**
+     * Returns an exporter with the same blur engine and executor settings. It has its own
+     * engine instances, so it can run while this image renders previews.
+     */
+    public FullResolutionExporter newExporter() {
+        return new FullResolutionExporter(createBlurEngine(blur, executor, pool), executor, pool);
+    }
+
+    /**
+     * Forwards {@link android.content.ComponentCallbacks2#onTrimMemory} to the buffer pool.
+     * Buffers checked out by a running render are returned afterwards as usual.
+     */
+    public void onTrimMemory(int level) {
+        pool.onTrimMemory(level);
+        if (renderCache != null) {
+            renderCache.onTrimMemory(level);
+        }
+        if (diskCache != null) {
+            diskCache.onTrimMemory(level);
+        }
     }
 
     public Bitmap getImageAs(int effectType, int thickness) {
+        return getImageAs(effectType, thickness, null);
+    }
+
+    public Bitmap getImageAs(int effectType, int thickness, CancellationSignal signal) {
+        return getImageAs(effectType, thickness, QUALITY_FULL, signal);
+    }
+
+    /**
+     * Renders at the full 800px working size, or at a quarter of it for
+     * {@link #QUALITY_PREVIEW}. Thickness is scaled with the working size so a preview
+     * looks like a smaller copy of the full render. Results come from the render cache,
+     * or for full quality from the disk cache, when possible and must not be modified.
+     */
+    public synchronized Bitmap getImageAs(int effectType, int thickness, int quality, CancellationSignal signal) {
+        int workingSize = quality == QUALITY_PREVIEW ? PREVIEW_SIZE : FULL_SIZE;
+        Bitmap cached = getCached(effectType, thickness, workingSize);
+        if (cached != null) {
+            return cached;
+        }
+
+        boolean persistent = diskCache != null && workingSize == FULL_SIZE;
+        this.signal = signal;
+        try (MatScope scope = new MatScope(pool)) {
+            this.scope = scope;
+            Bitmap result = render(effectType, thickness, workingSize);
+            if (renderCache != null) {
+                renderCache.put(originalBitmap, effectType, thickness, workingSize, result);
+            }
+            if (persistent) {
+                diskCache.putRender(contentKey, settingsKey(), effectType, thickness, workingSize, result);
+            }
+            return result;
+        } finally {
+            this.scope = null;
+            this.signal = null;
+        }
+    }
+
+    /**
+     * Renders at full quality into a Mat the caller owns and must release: a single CV_8UC1
+     * plane for effects without colour, RGBA otherwise. A cached render is converted rather
+     * than rendered again. Safe to call while another thread renders with this image.
+     */
+    public synchronized Mat getMatAs(int effectType, int thickness, CancellationSignal signal) {
+        Bitmap bitmap = getCached(effectType, thickness, FULL_SIZE);
+        if (bitmap == null && engine == ENGINE_MAT) {
+            Bitmap downscaledBitmap = prepare(FULL_SIZE);
+            return matEngine.renderDetachedMat(downscaledBitmap, effectType,
+                    scaleThickness(thickness, downscaledBitmap), signal);
+        }
+        if (bitmap == null) {
+            bitmap = getImageAs(effectType, thickness, QUALITY_FULL, signal);
+        }
+        Mat rgba = new Mat();
+        Utils.bitmapToMat(bitmap, rgba);
+        if (!EffectGraph.isGray(effectType)) {
+            return rgba;
+        }
+        Mat gray = new Mat();
+        Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+        rgba.release();
+        return gray;
+    }
+
+    private Bitmap getCached(int effectType, int thickness, int workingSize) {
+        if (renderCache != null) {
+            Bitmap cached = renderCache.get(originalBitmap, effectType, thickness, workingSize);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (diskCache != null && workingSize == FULL_SIZE) {
+            Bitmap stored = diskCache.getRender(contentKey, settingsKey(), effectType, thickness, workingSize);
+            if (stored != null && renderCache != null) {
+                renderCache.put(originalBitmap, effectType, thickness, workingSize, stored);
+            }
+            return stored;
+        }
+        return null;
+    }
+
+    /**
+     * Selects the stage cache section for {@code workingSize} and returns the source
+     * downscaled to it.
+     */
+    private Bitmap prepare(int workingSize) {
+        stageCache.validate(originalBitmap, workingSize);
+        if (sourceMat != null && workingSize == FULL_SIZE) {
+            // Handed over once; from here on the stage cache owns the reference.
+            stageCache.put(sourceMat.channels() == 1 ? StageCache.GRAY_MAT : StageCache.SOURCE_MAT, sourceMat);
+            sourceMat = null;
+        }
+        return getDownscaled(workingSize);
+    }
+
+    private Bitmap render(int effectType, int thickness, int workingSize) {
         Log.d("SketchImage", "Effect type: " + effectType);
         Bitmap result = null;
 
+        Bitmap downscaledBitmap = prepare(workingSize);
+        thickness = scaleThickness(thickness, downscaledBitmap);
 
-        Bitmap downscaledBitmap = downscaleImage(originalBitmap, 800);
+        if (engine == ENGINE_MAT) {
+            result = matEngine.render(downscaledBitmap, effectType, thickness, signal);
+            Log.d("SketchImage", "Result bitmap dimensions: " + result.getWidth() + "x" + result.getHeight());
+            return result;
+        }
 
         switch (effectType) {
             case ORIGINAL_TO_GRAY:
-                result = toGrayScale(downscaledBitmap);
+                result = getGray(downscaledBitmap);
                 break;
             case ORIGINAL_TO_SKETCH:
                 Bitmap sketchBitmap = toSketch(downscaledBitmap, thickness);
@@ -76,16 +337,16 @@ public class SketchImage {
                 result = toSoftColorSketch(downscaledBitmap, thickness);
                 break;
             case GRAY_TO_SKETCH:
-                result = toSketch(toGrayScale(downscaledBitmap), thickness);
+                result = toSketch(getGray(downscaledBitmap), thickness);
                 break;
             case GRAY_TO_COLORED_SKETCH:
-                result = toColoredSketch(toGrayScale(downscaledBitmap), thickness);
+                result = toColoredSketch(getGray(downscaledBitmap), thickness);
                 break;
             case GRAY_TO_SOFT_SKETCH:
-                result = toSoftSketch(toGrayScale(downscaledBitmap), thickness);
+                result = toSoftSketch(getGray(downscaledBitmap), thickness);
                 break;
             case GRAY_TO_SOFT_COLOR_SKETCH:
-                result = toSoftColorSketch(toGrayScale(downscaledBitmap), thickness);
+                result = toSoftColorSketch(getGray(downscaledBitmap), thickness);
                 break;
             case SKETCH_TO_COLORED_SKETCH:
                 Bitmap sketchBitmap2 = toSketch(downscaledBitmap, thickness);
@@ -99,110 +360,151 @@ public class SketchImage {
         return result;
     }
 
-    private Bitmap downscaleImage(Bitmap bitmap, int maxSize) {
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        if (width > maxSize || height > maxSize) {
-            float aspectRatio = (float) width / (float) height;
-            if (width > height) {
-                width = maxSize;
-                height = Math.round(maxSize / aspectRatio);
-            } else {
-                height = maxSize;
-                width = Math.round(maxSize * aspectRatio);
+    private Bitmap getDownscaled(int workingSize) {
+        Bitmap downscaled = stageCache.getBitmap(StageCache.DOWNSCALED);
+        if (downscaled == null) {
+            Bitmap full = workingSize < FULL_SIZE ? stageCache.getBitmap(FULL_SIZE, StageCache.DOWNSCALED) : null;
+            downscaled = AspectFit.downscale(full != null ? full : originalBitmap, workingSize);
+            stageCache.put(StageCache.DOWNSCALED, downscaled);
+            if (diskCache != null && workingSize == FULL_SIZE) {
+                diskCache.putSource(contentKey, FULL_SIZE, downscaled);
             }
-            return Bitmap.createScaledBitmap(bitmap, width, height, true);
         }
-        return bitmap;
+        return downscaled;
     }
 
-    private Bitmap toGrayScale(Bitmap bitmap) {
-        Mat mat = new Mat();
-        Utils.bitmapToMat(bitmap, mat);
-        Imgproc.cvtColor(mat, mat, Imgproc.COLOR_RGB2GRAY);
-        Bitmap grayBitmap = Bitmap.createBitmap(mat.cols(), mat.rows(), Bitmap.Config.ARGB_8888);
-        Utils.matToBitmap(mat, grayBitmap);
-        return grayBitmap;
+    /**
+     * The engine and blur both change the pixels, so they are part of a persisted render's key.
+     */
+    private String settingsKey() {
+        return "e" + engine + "b" + blur;
     }
 
-    private Bitmap toSketch(Bitmap bitmap, int thickness) {
-        Bitmap grayBitmap = toGrayScale(bitmap);
-
-        Mat matGray = new Mat();
-        Mat matInverted = new Mat();
-        Utils.bitmapToMat(grayBitmap, matGray);
-        Core.bitwise_not(matGray, matInverted);
-
-
-        Mat matBlurred = new Mat();
-        Size blurSize = new Size(thickness * 2 + 1, thickness * 2 + 1);
-        Imgproc.GaussianBlur(matInverted, matBlurred, blurSize, 0);
-
+    private int scaleThickness(int thickness, Bitmap downscaled) {
+        int fullSize = Math.min(Math.max(originalBitmap.getWidth(), originalBitmap.getHeight()), FULL_SIZE);
+        int workingSize = Math.max(downscaled.getWidth(), downscaled.getHeight());
+        if (workingSize >= fullSize) {
+            return thickness;
+        }
+        return Math.round(thickness * (float) workingSize / fullSize);
+    }
 
-        Bitmap blurredBitmap = Bitmap.createBitmap(matBlurred.cols(), matBlurred.rows(), Bitmap.Config.ARGB_8888);
-        Utils.matToBitmap(matBlurred, blurredBitmap);
+    private boolean isCachedSource(Bitmap bitmap) {
+        return bitmap == stageCache.getBitmap(StageCache.DOWNSCALED) || bitmap == stageCache.getBitmap(StageCache.GRAY);
+    }
 
+    private Bitmap getGray(Bitmap bitmap) {
+        if (!isCachedSource(bitmap)) {
+            return toGrayScale(bitmap);
+        }
+        Bitmap gray = stageCache.getBitmap(StageCache.GRAY);
+        if (gray == null) {
+            gray = toGrayScale(stageCache.getBitmap(StageCache.DOWNSCALED));
+            stageCache.put(StageCache.GRAY, gray);
+        }
+        return gray;
+    }
 
-        Bitmap sketchBitmap = ColorDodgeBlend(grayBitmap, blurredBitmap);
+    private Mat getGrayMat(Bitmap bitmap) {
+        if (!isCachedSource(bitmap)) {
+            Mat matGray = newMat(bitmap);
+            Utils.bitmapToMat(toGrayScale(bitmap), matGray);
+            return matGray;
+        }
+        Mat matGray = stageCache.getMat(StageCache.GRAY_MAT);
+        if (matGray == null) {
+            matGray = new Mat();
+            Utils.bitmapToMat(getGray(bitmap), matGray);
+            stageCache.put(StageCache.GRAY_MAT, matGray);
+        }
+        return matGray;
+    }
 
-        return sketchBitmap;
+    private Mat getInverted(Bitmap bitmap, Bitmap grayBitmap) {
+        if (!isCachedSource(bitmap)) {
+            Mat matGray = newMat(bitmap);
+            Mat matInverted = newMat(bitmap);
+            Utils.bitmapToMat(grayBitmap, matGray);
+            Core.bitwise_not(matGray, matInverted);
+            scope.release(matGray);
+            return matInverted;
+        }
+        Mat matInverted = stageCache.getMat(StageCache.INVERTED);
+        if (matInverted == null) {
+            matInverted = new Mat();
+            Core.bitwise_not(getGrayMat(bitmap), matInverted);
+            stageCache.put(StageCache.INVERTED, matInverted);
+        }
+        return matInverted;
     }
 
-    private int colordodge(int in1, int in2) {
-        float image = (float) in2;
-        float mask = (float) in1;
-        return ((int) ((image == 255) ? image : Math.min(255, (((long) mask << 8) / (255 - image)))));
+    private Mat newMat(Bitmap bitmap) {
+        return scope.newMat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
     }
 
-    public Bitmap ColorDodgeBlend(Bitmap source, Bitmap layer) {
-        Bitmap base = source.copy(Bitmap.Config.ARGB_8888, true);
-        Bitmap blend = layer.copy(Bitmap.Config.ARGB_8888, false);
+    private void throwIfCanceled() {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+    }
 
-        IntBuffer buffBase = IntBuffer.allocate(base.getWidth() * base.getHeight());
-        base.copyPixelsToBuffer(buffBase);
-        buffBase.rewind();
+    private void blur(Mat plane, Mat dst, int thickness) {
+        BlurCascade cascade = stageCache.getBlurCascade(plane, blurEngine);
+        int[] integral = cascade == null ? stageCache.getIntegral(plane, blurEngine) : null;
+        if (cascade != null) {
+            cascade.blur(plane, dst, thickness);
+        } else if (integral != null) {
+            blurEngine.blurIntegral(plane, integral, dst, thickness);
+        } else {
+            blurEngine.blur(plane, dst, thickness);
+        }
+    }
 
-        IntBuffer buffBlend = IntBuffer.allocate(blend.getWidth() * blend.getHeight());
-        blend.copyPixelsToBuffer(buffBlend);
-        buffBlend.rewind();
+    private Bitmap toGrayScale(Bitmap bitmap) {
+        Mat mat = newMat(bitmap);
+        Mat gray = scope.newMat(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC1);
+        Utils.bitmapToMat(bitmap, mat);
+        Imgproc.cvtColor(mat, gray, Imgproc.COLOR_RGB2GRAY);
+        Bitmap grayBitmap = Bitmap.createBitmap(gray.cols(), gray.rows(), Bitmap.Config.ARGB_8888);
+        Utils.matToBitmap(gray, grayBitmap);
+        scope.release(mat);
+        scope.release(gray);
+        return grayBitmap;
+    }
 
-        IntBuffer buffOut = IntBuffer.allocate(base.getWidth() * base.getHeight());
-        buffOut.rewind();
+    private Bitmap toSketch(Bitmap bitmap, int thickness) {
+        throwIfCanceled();
+        Bitmap grayBitmap = getGray(bitmap);
+        Mat matInverted = getInverted(bitmap, grayBitmap);
+        throwIfCanceled();
 
-        while (buffOut.position() < buffOut.limit()) {
-            int filterInt = buffBlend.get();
-            int srcInt = buffBase.get();
 
-            int redValueFilter = Color.red(filterInt);
-            int greenValueFilter = Color.green(filterInt);
-            int blueValueFilter = Color.blue(filterInt);
+        Mat matBlurred = newMat(bitmap);
+        blur(matInverted, matBlurred, thickness);
+        throwIfCanceled();
 
-            int redValueSrc = Color.red(srcInt);
-            int greenValueSrc = Color.green(srcInt);
-            int blueValueSrc = Color.blue(srcInt);
+        Bitmap blurredBitmap = Bitmap.createBitmap(matBlurred.cols(), matBlurred.rows(), Bitmap.Config.ARGB_8888);
+        Utils.matToBitmap(matBlurred, blurredBitmap);
+        scope.release(matBlurred);
 
-            int redValueFinal = colordodge(redValueFilter, redValueSrc);
-            int greenValueFinal = colordodge(greenValueFilter, greenValueSrc);
-            int blueValueFinal = colordodge(blueValueFilter, blueValueSrc);
 
-            int pixel = Color.argb(255, redValueFinal, greenValueFinal, blueValueFinal);
-            buffOut.put(pixel);
-        }
+        dodgeBlender.blend(grayBitmap, blurredBitmap, blurredBitmap);
 
-        buffOut.rewind();
-        base.copyPixelsFromBuffer(buffOut);
-        blend.recycle();
+        return blurredBitmap;
+    }
 
+    public Bitmap ColorDodgeBlend(Bitmap source, Bitmap layer) {
+        Bitmap base = Bitmap.createBitmap(source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+        dodgeBlender.blend(source, layer, base);
         return base;
     }
 
-
-
     private Bitmap toColoredSketch(Bitmap bitmap, int thickness) {
         Bitmap sketchBitmap = toSketch(bitmap, thickness);
-        Mat matOriginal = new Mat();
-        Mat matSketch = new Mat();
-        Mat matColoredSketch = new Mat();
+        throwIfCanceled();
+        Mat matOriginal = newMat(bitmap);
+        Mat matSketch = newMat(bitmap);
+        Mat matColoredSketch = newMat(bitmap);
 
         Utils.bitmapToMat(bitmap, matOriginal);
         Utils.bitmapToMat(sketchBitmap, matSketch);
@@ -211,22 +513,26 @@ public class SketchImage {
 
         Bitmap coloredSketchBitmap = Bitmap.createBitmap(matColoredSketch.cols(), matColoredSketch.rows(), Bitmap.Config.ARGB_8888);
         Utils.matToBitmap(matColoredSketch, coloredSketchBitmap);
+        scope.release(matOriginal);
+        scope.release(matSketch);
+        scope.release(matColoredSketch);
 
         return coloredSketchBitmap;
     }
 
     private Bitmap toSoftSketch(Bitmap bitmap, int thickness) {
-        Mat matGray = new Mat();
-        Mat matBlurred = new Mat();
-        Mat matResult = new Mat();
+        throwIfCanceled();
+        Mat matGray = getGrayMat(bitmap);
+        Mat matBlurred = newMat(bitmap);
+        Mat matResult = newMat(bitmap);
 
-        Utils.bitmapToMat(toGrayScale(bitmap), matGray);
-        Size blurSize = new Size(thickness * 2 + 1, thickness * 2 + 1);
-        Imgproc.GaussianBlur(matGray, matBlurred, blurSize, 0);
+        blur(matGray, matBlurred, thickness);
         Core.divide(matGray, matBlurred, matResult, 256);
 
         Bitmap softSketchBitmap = Bitmap.createBitmap(matResult.cols(), matResult.rows(), Bitmap.Config.ARGB_8888);
         Utils.matToBitmap(matResult, softSketchBitmap);
+        scope.release(matBlurred);
+        scope.release(matResult);
 
         return softSketchBitmap;
     }
@@ -234,9 +540,10 @@ public class SketchImage {
     private Bitmap toSoftColorSketch(Bitmap bitmap, int thickness) {
         Bitmap softSketch = toSoftSketch(bitmap, thickness);
         Bitmap coloredSketch = toColoredSketch(bitmap, thickness);
-        Mat matSoftSketch = new Mat();
-        Mat matColoredSketch = new Mat();
-        Mat matResult = new Mat();
+        throwIfCanceled();
+        Mat matSoftSketch = newMat(bitmap);
+        Mat matColoredSketch = newMat(bitmap);
+        Mat matResult = newMat(bitmap);
 
         Utils.bitmapToMat(softSketch, matSoftSketch);
         Utils.bitmapToMat(coloredSketch, matColoredSketch);
@@ -245,6 +552,9 @@ public class SketchImage {
 
         Bitmap softColorSketchBitmap = Bitmap.createBitmap(matResult.cols(), matResult.rows(), Bitmap.Config.ARGB_8888);
         Utils.matToBitmap(matResult, softColorSketchBitmap);
+        scope.release(matSoftSketch);
+        scope.release(matColoredSketch);
+        scope.release(matResult);
 
         return softColorSketchBitmap;
     }
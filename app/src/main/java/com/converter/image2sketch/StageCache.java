@@ -0,0 +1,149 @@
+package com.converter.image2sketch;
+
+import android.graphics.Bitmap;
+
+import org.opencv.core.Mat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds the thickness-independent intermediates of a {@link SketchImage} render
+ * (downscaled source, gray plane, inverted plane) for the current source bitmap,
+ * one section per working size. Blur state derived from the gray or inverted plane
+ * lives and dies with that plane's entry.
+ */
+public class StageCache {
+    public static final String DOWNSCALED = "downscaled";
+    public static final String SOURCE_MAT = "sourceMat";
+    public static final String GRAY = "gray";
+    public static final String GRAY_MAT = "grayMat";
+    public static final String INVERTED = "inverted";
+    public static final String GRAY_BLURS = "grayBlurs";
+    public static final String INVERTED_BLURS = "invertedBlurs";
+    public static final String GRAY_INTEGRAL = "grayIntegral";
+    public static final String INVERTED_INTEGRAL = "invertedIntegral";
+
+    private final BufferPool pool;
+    private final Map<Integer, Map<String, Object>> sections = new HashMap<>();
+    private Map<String, Object> entries = new HashMap<>();
+    private Bitmap source;
+    private int sourceGeneration;
+
+    public StageCache() {
+        this(new BufferPool(0));
+    }
+
+    public StageCache(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Drops every entry if {@code bitmap} is not the bitmap the cache was filled from,
+     * or if it has been modified since, then selects the section for {@code workingSize}.
+     */
+    public void validate(Bitmap bitmap, int workingSize) {
+        if (bitmap != source || bitmap.getGenerationId() != sourceGeneration) {
+            clear();
+            source = bitmap;
+            sourceGeneration = bitmap.getGenerationId();
+        }
+        entries = sections.get(workingSize);
+        if (entries == null) {
+            entries = new HashMap<>();
+            sections.put(workingSize, entries);
+        }
+    }
+
+    public Bitmap getBitmap(int workingSize, String key) {
+        Map<String, Object> section = sections.get(workingSize);
+        return section != null ? (Bitmap) section.get(key) : null;
+    }
+
+    public Bitmap getBitmap(String key) {
+        return (Bitmap) entries.get(key);
+    }
+
+    public Mat getMat(String key) {
+        return (Mat) entries.get(key);
+    }
+
+    public void put(String key, Object value) {
+        Object previous = entries.put(key, value);
+        if (previous != value) {
+            release(previous);
+            if (GRAY_MAT.equals(key)) {
+                release(entries.remove(GRAY_BLURS));
+                release(entries.remove(GRAY_INTEGRAL));
+            } else if (INVERTED.equals(key)) {
+                release(entries.remove(INVERTED_BLURS));
+                release(entries.remove(INVERTED_INTEGRAL));
+            }
+        }
+    }
+
+    /**
+     * Returns the blur cascade for a cached gray or inverted plane of the current section,
+     * or null if {@code plane} is not one of them or the engine gains nothing from one.
+     */
+    public BlurCascade getBlurCascade(Mat plane, BlurEngine blurEngine) {
+        String key = blurEngine.isCascadable() ? planeKey(plane, GRAY_BLURS, INVERTED_BLURS) : null;
+        if (key == null) {
+            return null;
+        }
+        BlurCascade cascade = (BlurCascade) entries.get(key);
+        if (cascade == null) {
+            cascade = new BlurCascade(blurEngine, pool);
+            entries.put(key, cascade);
+        }
+        return cascade;
+    }
+
+    /**
+     * Returns the summed-area table of a cached gray or inverted plane of the current
+     * section, built with {@code Imgproc.integral} on first use, or null if {@code plane}
+     * is not one of them or the engine does not use one.
+     */
+    public int[] getIntegral(Mat plane, BlurEngine blurEngine) {
+        String key = blurEngine.isIntegral() ? planeKey(plane, GRAY_INTEGRAL, INVERTED_INTEGRAL) : null;
+        if (key == null) {
+            return null;
+        }
+        int[] table = (int[]) entries.get(key);
+        if (table == null) {
+            table = IntegralBlurEngine.integral(plane, pool);
+            entries.put(key, table);
+        }
+        return table;
+    }
+
+    private String planeKey(Mat plane, String grayKey, String invertedKey) {
+        if (plane == entries.get(INVERTED)) {
+            return invertedKey;
+        } else if (plane == entries.get(GRAY_MAT)) {
+            return grayKey;
+        }
+        return null;
+    }
+
+    private void release(Object value) {
+        if (value instanceof Mat) {
+            pool.recycle((Mat) value);
+        } else if (value instanceof BlurCascade) {
+            ((BlurCascade) value).clear();
+        } else if (value instanceof int[]) {
+            pool.recycle((int[]) value);
+        }
+    }
+
+    public void clear() {
+        for (Map<String, Object> section : sections.values()) {
+            for (Object value : section.values()) {
+                release(value);
+            }
+        }
+        sections.clear();
+        entries = new HashMap<>();
+        source = null;
+    }
+}
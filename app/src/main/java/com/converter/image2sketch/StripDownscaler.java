@@ -0,0 +1,200 @@
+package com.converter.image2sketch;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Shrinks an encoded image to fit a square without ever decoding all of it. The image
+ * is read in horizontal strips through a {@link BitmapRegionDecoder} and every strip is
+ * area-averaged into the output as it arrives. The result matches
+ * {@code Imgproc.INTER_AREA}; peak memory is one strip plus the output. Strips are decoded
+ * at full resolution: {@code inSampleSize} drops pixels for PNG and WebP rather than
+ * averaging them, and JPEGs, where it would average, are left to {@link MatDecoder}.
+ */
+public class StripDownscaler {
+    private static final int STRIP_PIXELS = 1 << 20;
+    private static final int CHANNELS = 4;
+
+    private final int targetWidth;
+    private final int targetHeight;
+    private final int sourceHeight;
+    private final double rowsPerTarget;
+    // Horizontal taps: target x reads decoded columns tapIndex[tapStart[x]..tapStart[x + 1]).
+    private int[] tapStart;
+    private int[] tapIndex;
+    private float[] tapWeight;
+    private final float[] row;
+    private final float[] sum;
+    private final int[] pixels;
+    private double weight;
+    private double rowEnd;
+    private int targetRow;
+
+    StripDownscaler(int sourceHeight, int targetWidth, int targetHeight) {
+        this.sourceHeight = sourceHeight;
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.rowsPerTarget = sourceHeight / (double) targetHeight;
+        this.row = new float[targetWidth * CHANNELS];
+        this.sum = new float[targetWidth * CHANNELS];
+        this.pixels = new int[targetWidth * targetHeight];
+        this.rowEnd = rowsPerTarget;
+    }
+
+    /**
+     * Decodes {@code in} so its longer side is at most {@code maxSize}. Throws IOException
+     * for formats the region decoder does not support.
+     */
+    public static Bitmap decode(InputStream in, int maxSize) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(in, false);
+        try {
+            return decode(decoder, maxSize);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    private static Bitmap decode(BitmapRegionDecoder decoder, int maxSize) {
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        int[] target = AspectFit.fit(width, height, maxSize);
+        int targetWidth = target[0];
+        int targetHeight = target[1];
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        StripDownscaler downscaler = new StripDownscaler(height, targetWidth, targetHeight);
+        int stripHeight = Math.max(1, STRIP_PIXELS / width);
+        int[] strip = null;
+        for (int top = 0; top < height; top += stripHeight) {
+            Bitmap bitmap = decoder.decodeRegion(new Rect(0, top, width, Math.min(top + stripHeight, height)), options);
+            if (bitmap == null) {
+                throw new IllegalStateException("Could not decode rows " + top + " to " + (top + stripHeight));
+            }
+            int decodedWidth = bitmap.getWidth();
+            int decodedRows = bitmap.getHeight();
+            if (strip == null || strip.length < decodedWidth * decodedRows) {
+                strip = new int[decodedWidth * decodedRows];
+            }
+            bitmap.getPixels(strip, 0, decodedWidth, 0, 0, decodedWidth, decodedRows);
+            bitmap.recycle();
+            downscaler.addStrip(strip, decodedWidth, decodedRows, top, 1);
+        }
+        downscaler.finish();
+
+        Bitmap result = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+        result.setPixels(downscaler.pixels(), 0, targetWidth, 0, 0, targetWidth, targetHeight);
+        return result;
+    }
+
+    /**
+     * Adds decoded rows that start at source row {@code top}; each covers {@code sampleSize}
+     * source rows.
+     */
+    void addStrip(int[] strip, int width, int rows, int top, int sampleSize) {
+        if (tapStart == null) {
+            buildTaps(width);
+        }
+        for (int y = 0; y < rows; y++) {
+            double from = top + (double) y * sampleSize;
+            double to = Math.min(from + sampleSize, sourceHeight);
+            if (from >= to) {
+                break;
+            }
+            resampleRow(strip, y * width);
+            while (from < to && targetRow < targetHeight) {
+                double end = Math.min(to, rowEnd);
+                float coverage = (float) (end - from);
+                for (int i = 0; i < sum.length; i++) {
+                    sum[i] += row[i] * coverage;
+                }
+                weight += coverage;
+                from = end;
+                if (end >= rowEnd) {
+                    emitRow();
+                }
+            }
+        }
+    }
+
+    void finish() {
+        if (targetRow < targetHeight && weight > 0) {
+            emitRow();
+        }
+    }
+
+    /**
+     * The output as packed ARGB, complete once {@link #finish()} has run.
+     */
+    int[] pixels() {
+        return pixels;
+    }
+
+    private void buildTaps(int width) {
+        double columnsPerTarget = width / (double) targetWidth;
+        int maxTaps = (int) Math.ceil(columnsPerTarget) + 1;
+        tapStart = new int[targetWidth + 1];
+        tapIndex = new int[targetWidth * maxTaps];
+        tapWeight = new float[targetWidth * maxTaps];
+        int taps = 0;
+        for (int x = 0; x < targetWidth; x++) {
+            tapStart[x] = taps;
+            double from = x * columnsPerTarget;
+            double to = Math.min((x + 1) * columnsPerTarget, width);
+            for (int column = (int) from; column < to; column++) {
+                double coverage = Math.min(column + 1, to) - Math.max(column, from);
+                if (coverage > 0) {
+                    tapIndex[taps] = column;
+                    tapWeight[taps] = (float) (coverage / (to - from));
+                    taps++;
+                }
+            }
+        }
+        tapStart[targetWidth] = taps;
+    }
+
+    private void resampleRow(int[] strip, int offset) {
+        for (int x = 0; x < targetWidth; x++) {
+            float a = 0;
+            float r = 0;
+            float g = 0;
+            float b = 0;
+            for (int t = tapStart[x]; t < tapStart[x + 1]; t++) {
+                int color = strip[offset + tapIndex[t]];
+                float w = tapWeight[t];
+                a += (color >>> 24) * w;
+                r += ((color >> 16) & 0xFF) * w;
+                g += ((color >> 8) & 0xFF) * w;
+                b += (color & 0xFF) * w;
+            }
+            int i = x * CHANNELS;
+            row[i] = a;
+            row[i + 1] = r;
+            row[i + 2] = g;
+            row[i + 3] = b;
+        }
+    }
+
+    private void emitRow() {
+        float scale = (float) (1 / weight);
+        int offset = targetRow * targetWidth;
+        for (int x = 0; x < targetWidth; x++) {
+            int i = x * CHANNELS;
+            pixels[offset + x] = channel(sum[i] * scale) << 24 | channel(sum[i + 1] * scale) << 16
+                    | channel(sum[i + 2] * scale) << 8 | channel(sum[i + 3] * scale);
+        }
+        Arrays.fill(sum, 0);
+        weight = 0;
+        targetRow++;
+        rowEnd = (targetRow + 1) * rowsPerTarget;
+    }
+
+    private static int channel(float value) {
+        return Math.min(255, Math.max(0, (int) (value + 0.5f)));
+    }
+}
@@ -0,0 +1,75 @@
+package com.converter.image2sketch;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Small previews of several effects rendered in parallel from one shared downscaled copy
+ * of the image. Effects are started in the order they are requested and each preview is
+ * delivered on the main thread as soon as it is done.
+ */
+public class ThumbnailRenderer {
+    private static final String TAG = "ThumbnailRenderer";
+
+    public static final int THUMBNAIL_SIZE = 128;
+
+    public interface Callback {
+        void onThumbnail(int effectType, Bitmap thumbnail);
+    }
+
+    private final RenderService service;
+    private final float thicknessScale;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<CompletableFuture<Bitmap>> renders = new ArrayList<>();
+
+    public ThumbnailRenderer(Context context, Bitmap original, int engine, int blur) {
+        Bitmap source = AspectFit.downscale(original, THUMBNAIL_SIZE);
+        int fullSize = Math.min(Math.max(original.getWidth(), original.getHeight()), SketchImage.FULL_SIZE);
+        // The images below only ever see the thumbnail, so thickness is scaled here the way
+        // SketchImage scales it for previews.
+        thicknessScale = Math.min(1f, Math.max(source.getWidth(), source.getHeight()) / (float) fullSize);
+        SketchImage.Builder builder = new SketchImage.Builder(context, source)
+                .setEngine(engine)
+                .setBlurEngine(blur)
+                .setRenderCache(null);
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+        service = new RenderService(builder, threads);
+    }
+
+    /**
+     * Renders each effect in {@code effectTypes}, starting them in that order.
+     */
+    public void render(int[] effectTypes, int thickness, Callback callback) {
+        int scaled = Math.round(thickness * thicknessScale);
+        for (int effectType : effectTypes) {
+            CompletableFuture<Bitmap> render = service.render(effectType, scaled, SketchImage.QUALITY_FULL);
+            render.whenComplete((thumbnail, error) -> {
+                if (thumbnail != null) {
+                    mainHandler.post(() -> {
+                        if (!render.isCancelled()) {
+                            callback.onThumbnail(effectType, thumbnail);
+                        }
+                    });
+                } else if (!render.isCancelled()) {
+                    Log.w(TAG, "No thumbnail for effect " + effectType, error);
+                }
+            });
+            renders.add(render);
+        }
+    }
+
+    public void shutdown() {
+        for (CompletableFuture<Bitmap> render : renders) {
+            render.cancel(false);
+        }
+        renders.clear();
+        service.shutdown();
+    }
+}
@@ -0,0 +1,147 @@
+package com.converter.image2sketch;
+
+import org.opencv.core.Mat;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a render stage into horizontal tiles and runs them on a work-stealing pool.
+ * Tiles of neighbourhood operations are widened by a halo so the stitched output has
+ * no seams. {@link #SEQUENTIAL} runs everything on the calling thread.
+ */
+public class TileExecutor {
+    private static final int MIN_TILE_ROWS = 16;
+
+    public static final TileExecutor SEQUENTIAL = new TileExecutor(null);
+
+    private static TileExecutor shared;
+
+    public interface RangeOp {
+        void apply(int from, int to);
+    }
+
+    public interface TileOp {
+        void apply(Mat src, Mat dst);
+    }
+
+    public interface BandOp {
+        void apply(Mat[] src, Mat dst);
+    }
+
+    private final ForkJoinPool pool;
+
+    public TileExecutor(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public static synchronized TileExecutor shared() {
+        if (shared == null) {
+            shared = new TileExecutor(new ForkJoinPool(Runtime.getRuntime().availableProcessors()));
+        }
+        return shared;
+    }
+
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    /**
+     * Calls {@code op} on disjoint sub-ranges that together cover [from, to).
+     */
+    public void forRange(int from, int to, int grain, RangeOp op) {
+        if (pool == null || to - from <= grain) {
+            op.apply(from, to);
+            return;
+        }
+        pool.invoke(new RangeTask(from, to, Math.max(grain, 1), op));
+    }
+
+    /**
+     * Calls {@code op} on row bands of {@code rows}, sized so every worker gets a few bands.
+     */
+    public void forRows(int rows, RangeOp op) {
+        forRange(0, rows, tileRows(rows), op);
+    }
+
+    /**
+     * Runs {@code op} on row tiles of {@code src} widened by {@code halo} rows on each side
+     * and stitches the inner rows into {@code dst}, which is created with {@code dstType}.
+     */
+    public void forTiles(Mat src, Mat dst, int dstType, int halo, TileOp op) {
+        if (pool == null) {
+            op.apply(src, dst);
+            return;
+        }
+        int rows = src.rows();
+        dst.create(rows, src.cols(), dstType);
+        forRows(rows, (from, to) -> {
+            int top = Math.max(from - halo, 0);
+            int bottom = Math.min(to + halo, rows);
+            Mat region = src.rowRange(top, bottom);
+            Mat tile = new Mat();
+            op.apply(region, tile);
+            Mat inner = tile.rowRange(from - top, to - top);
+            Mat target = dst.rowRange(from, to);
+            inner.copyTo(target);
+            region.release();
+            inner.release();
+            target.release();
+            tile.release();
+        });
+    }
+
+    /**
+     * Runs a per-pixel {@code op} on matching row bands of {@code sources} and of
+     * {@code dst}, which is created with {@code dstType} and the size of the first source.
+     */
+    public void forBands(Mat dst, int dstType, BandOp op, Mat... sources) {
+        if (pool == null) {
+            op.apply(sources, dst);
+            return;
+        }
+        int rows = sources[0].rows();
+        dst.create(rows, sources[0].cols(), dstType);
+        forRows(rows, (from, to) -> {
+            Mat[] bands = new Mat[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                bands[i] = sources[i].rowRange(from, to);
+            }
+            Mat target = dst.rowRange(from, to);
+            op.apply(bands, target);
+            for (Mat band : bands) {
+                band.release();
+            }
+            target.release();
+        });
+    }
+
+    private int tileRows(int rows) {
+        int workers = pool != null ? pool.getParallelism() : 1;
+        return Math.max(MIN_TILE_ROWS, rows / (workers * 4));
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final RangeOp op;
+
+        RangeTask(int from, int to, int grain, RangeOp op) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.op = op;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                op.apply(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, middle, grain, op), new RangeTask(middle, to, grain, op));
+        }
+    }
+}
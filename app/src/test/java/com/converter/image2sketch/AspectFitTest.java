@@ -0,0 +1,26 @@
+package com.converter.image2sketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class AspectFitTest {
+
+    @Test
+    public void imagesThatFitKeepTheirSize() {
+        assertArrayEquals(new int[]{640, 480}, AspectFit.fit(640, 480, 1024));
+        assertArrayEquals(new int[]{1024, 1024}, AspectFit.fit(1024, 1024, 1024));
+    }
+
+    @Test
+    public void longerSideIsBroughtDownToMaxSize() {
+        assertArrayEquals(new int[]{1024, 768}, AspectFit.fit(4000, 3000, 1024));
+        assertArrayEquals(new int[]{768, 1024}, AspectFit.fit(3000, 4000, 1024));
+        assertArrayEquals(new int[]{1024, 1024}, AspectFit.fit(2048, 2048, 1024));
+    }
+
+    @Test
+    public void shorterSideNeverRoundsToZero() {
+        assertArrayEquals(new int[]{1024, 1}, AspectFit.fit(100000, 10, 1024));
+    }
+}
@@ -0,0 +1,68 @@
+package com.converter.image2sketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DodgeBlenderTest {
+
+    /** The per-channel formula the blender's table replaced. */
+    private static int colordodge(int in1, int in2) {
+        float image = (float) in2;
+        float mask = (float) in1;
+        return ((int) ((image == 255) ? image : Math.min(255, (((long) mask << 8) / (255 - image)))));
+    }
+
+    @Test
+    public void tableMatchesFormulaForEveryPair() {
+        byte[] base = new byte[256 * 256];
+        byte[] layer = new byte[256 * 256];
+        for (int mask = 0; mask < 256; mask++) {
+            for (int image = 0; image < 256; image++) {
+                base[mask * 256 + image] = (byte) image;
+                layer[mask * 256 + image] = (byte) mask;
+            }
+        }
+        byte[] out = new byte[base.length];
+        DodgeBlender.blend(base, layer, out, 0, out.length, 1);
+
+        for (int mask = 0; mask < 256; mask++) {
+            for (int image = 0; image < 256; image++) {
+                assertEquals("mask " + mask + " image " + image,
+                        colordodge(mask, image), out[mask * 256 + image] & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void packedPixelsBlendEachChannelAndForceAlpha() {
+        int[] base = {0x00102030, 0x80FF7F00, 0xFFFEFDFC};
+        int[] layer = {0x40506070, 0x00808080, 0x12345678};
+        int[] out = new int[base.length];
+        DodgeBlender.blend(base, layer, out, 0, out.length);
+
+        for (int i = 0; i < base.length; i++) {
+            int expected = 0xFF000000;
+            for (int shift = 0; shift <= 16; shift += 8) {
+                expected |= colordodge((layer[i] >> shift) & 0xFF, (base[i] >> shift) & 0xFF) << shift;
+            }
+            assertEquals(Integer.toHexString(expected), Integer.toHexString(out[i]));
+        }
+    }
+
+    @Test
+    public void fourChannelBytesLeaveOtherRangesAlone() {
+        byte[] base = {10, 20, 30, 40, 50, 60, 70, 80};
+        byte[] layer = {90, 100, 110, 120, (byte) 130, (byte) 140, (byte) 150, (byte) 160};
+        byte[] out = new byte[8];
+        DodgeBlender.blend(base, layer, out, 4, 8, 4);
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, out[i]);
+        }
+        for (int i = 4; i < 7; i++) {
+            assertEquals(colordodge(layer[i] & 0xFF, base[i] & 0xFF), out[i] & 0xFF);
+        }
+        assertEquals(255, out[7] & 0xFF);
+    }
+}
@@ -0,0 +1,98 @@
+package com.converter.image2sketch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EffectGraphTest {
+
+    private static List<EffectGraph.Node> reachable(EffectGraph.Node root) {
+        List<EffectGraph.Node> nodes = new ArrayList<>();
+        collect(root, nodes);
+        return nodes;
+    }
+
+    private static void collect(EffectGraph.Node node, List<EffectGraph.Node> nodes) {
+        if (node == null || nodes.contains(node)) {
+            return;
+        }
+        nodes.add(node);
+        collect(node.first, nodes);
+        collect(node.second, nodes);
+    }
+
+    private static EffectGraph.Node find(EffectGraph.Plan plan, String key) {
+        for (EffectGraph.Node node : reachable(plan.root)) {
+            if (node.key.equals(key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void usesCountEveryReadOfANode() {
+        for (int effect = SketchImage.ORIGINAL_TO_GRAY; effect <= SketchImage.SKETCH_TO_COLORED_SKETCH; effect++) {
+            EffectGraph.Plan plan = EffectGraph.planFor(effect);
+            int[] expected = new int[EffectGraph.size()];
+            for (EffectGraph.Node node : reachable(plan.root)) {
+                if (node.first != null) {
+                    expected[node.first.id]++;
+                }
+                if (node.second != null) {
+                    expected[node.second.id]++;
+                }
+            }
+            for (int id = 0; id < expected.length; id++) {
+                assertEquals("effect " + effect + " node " + id, expected[id], plan.uses[id]);
+            }
+            assertEquals(0, plan.uses[plan.root.id]);
+        }
+    }
+
+    @Test
+    public void softColorSketchSharesItsGrayPlane() {
+        EffectGraph.Plan plan = EffectGraph.planFor(SketchImage.ORIGINAL_TO_SOFT_COLOR_SKETCH);
+        EffectGraph.Node gray = find(plan, "gray(source)");
+        assertNotNull(gray);
+        // Read by the inversion, the dodge, the soft blur and the division.
+        assertEquals(4, plan.uses[gray.id]);
+        // Read by the gray conversion and the colour mix.
+        assertEquals(2, plan.uses[find(plan, "source").id]);
+    }
+
+    @Test
+    public void equalSubgraphsAreOneNode() {
+        EffectGraph.Node sketch = EffectGraph.planFor(SketchImage.GRAY_TO_SKETCH).root;
+        EffectGraph.Node colored = EffectGraph.planFor(SketchImage.GRAY_TO_COLORED_SKETCH).root;
+        assertSame(sketch, colored.second);
+        assertEquals(1, EffectGraph.planFor(SketchImage.GRAY_TO_COLORED_SKETCH).uses[sketch.id]);
+    }
+
+    @Test
+    public void blurDepthFollowsTheLongestChain() {
+        assertEquals(0, EffectGraph.planFor(SketchImage.ORIGINAL_TO_GRAY).blurDepth);
+        assertEquals(1, EffectGraph.planFor(SketchImage.GRAY_TO_SKETCH).blurDepth);
+        assertEquals(1, EffectGraph.planFor(SketchImage.ORIGINAL_TO_SOFT_COLOR_SKETCH).blurDepth);
+        assertEquals(2, EffectGraph.planFor(SketchImage.SKETCH_TO_COLORED_SKETCH).blurDepth);
+        assertEquals(0, EffectGraph.planFor(-1).blurDepth);
+    }
+
+    @Test
+    public void unknownEffectPassesTheSourceThrough() {
+        EffectGraph.Plan plan = EffectGraph.planFor(-1);
+        assertEquals(EffectGraph.SOURCE, plan.root.op);
+        for (int uses : plan.uses) {
+            assertEquals(0, uses);
+        }
+        assertTrue(EffectGraph.isGray(SketchImage.GRAY_TO_SKETCH));
+        assertFalse(EffectGraph.isGray(SketchImage.ORIGINAL_TO_COLORED_SKETCH));
+    }
+}
@@ -0,0 +1,35 @@
+package com.converter.image2sketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FullResolutionExporterTest {
+
+    @Test
+    public void reachCoversEveryChainedBlur() {
+        int one = FullResolutionExporter.reach(SketchImage.GRAY_TO_SKETCH, 100);
+        assertTrue(one >= 100);
+        assertTrue(one >= Math.ceil(4 * BlurEngine.sigmaFor(100)));
+        assertEquals(2 * one, FullResolutionExporter.reach(SketchImage.SKETCH_TO_COLORED_SKETCH, 100));
+        assertEquals(0, FullResolutionExporter.reach(SketchImage.ORIGINAL_TO_GRAY, 100));
+    }
+
+    @Test
+    public void smallHalosStayAtFullResolution() {
+        assertEquals(1, FullResolutionExporter.reductionFor(0));
+        assertEquals(1, FullResolutionExporter.reductionFor(FullResolutionExporter.MAX_HALO));
+        assertEquals(2, FullResolutionExporter.reductionFor(FullResolutionExporter.MAX_HALO + 1));
+    }
+
+    @Test
+    public void reducedHaloNeverExceedsTheCap() {
+        for (int halo = 0; halo < 20000; halo += 37) {
+            int level = FullResolutionExporter.reductionFor(halo);
+            assertEquals(0, level & (level - 1));
+            assertTrue("halo " + halo, halo <= FullResolutionExporter.MAX_HALO * level);
+            assertTrue("halo " + halo, level == 1 || halo > FullResolutionExporter.MAX_HALO * level / 2);
+        }
+    }
+}
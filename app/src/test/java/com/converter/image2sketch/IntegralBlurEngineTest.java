@@ -0,0 +1,58 @@
+package com.converter.image2sketch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IntegralBlurEngineTest {
+
+    private static double variance(int[] radii) {
+        double variance = 0;
+        for (int radius : radii) {
+            int width = 2 * radius + 1;
+            variance += (width * width - 1) / 12.0;
+        }
+        return variance;
+    }
+
+    @Test
+    public void stackedBoxesMatchTheGaussianVariance() {
+        double[] sigmas = {1, 1.5, 2.4, 5, 12.7, 40, 133};
+        for (int passes = 1; passes <= 3; passes++) {
+            for (double sigma : sigmas) {
+                int[] radii = IntegralBlurEngine.boxRadii(sigma, passes);
+                assertEquals(passes, radii.length);
+
+                // Widths come in two neighbouring odd sizes, so the variance can be off by at
+                // most half the step between them.
+                int lower = 2 * radii[0] + 1;
+                double tolerance = ((lower + 2) * (lower + 2) - lower * lower) / 24.0 + 1e-9;
+                double error = Math.abs(variance(radii) - sigma * sigma);
+                assertTrue("sigma " + sigma + " passes " + passes + " error " + error, error <= tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void radiiAreOrderedAndDifferByAtMostOne() {
+        for (int passes = 1; passes <= 3; passes++) {
+            for (double sigma = 0.5; sigma < 200; sigma *= 1.3) {
+                int[] radii = IntegralBlurEngine.boxRadii(sigma, passes);
+                for (int i = 0; i < radii.length; i++) {
+                    assertTrue(radii[i] >= 0);
+                    assertTrue(radii[i] - radii[0] <= 1);
+                    if (i > 0) {
+                        assertTrue(radii[i] >= radii[i - 1]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void singlePassTakesTheCloserBox() {
+        // The ideal width for sigma 10 is just over 34.6; 35 is closer in variance than 33.
+        assertEquals(17, IntegralBlurEngine.boxRadii(10, 1)[0]);
+    }
+}
@@ -0,0 +1,128 @@
+package com.converter.image2sketch;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.InflaterInputStream;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class PngStreamWriterTest {
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+
+    private static byte[] pixels(int channels) {
+        byte[] pixels = new byte[WIDTH * HEIGHT * channels];
+        new Random(7).nextBytes(pixels);
+        return pixels;
+    }
+
+    /** Writes the image in uneven batches of rows, as the exporter's bands arrive. */
+    private static byte[] encode(byte[] pixels, boolean gray) throws IOException {
+        int rowBytes = WIDTH * (gray ? 1 : 4);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try (PngStreamWriter writer = new PngStreamWriter(png, WIDTH, HEIGHT, gray)) {
+            int y = 0;
+            for (int rows = 1; y < HEIGHT; rows = rows % 5 + 1) {
+                int batch = Math.min(rows, HEIGHT - y);
+                writer.writeRows(pixels, y * rowBytes, batch);
+                y += batch;
+            }
+            writer.finish();
+        }
+        return png.toByteArray();
+    }
+
+    /** Returns the raw scanlines: every chunk is walked and the IDAT data inflated. */
+    private static byte[] scanlines(byte[] png) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(png));
+        in.skipBytes(8);
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        while (true) {
+            int length = in.readInt();
+            byte[] type = new byte[4];
+            in.readFully(type);
+            byte[] data = new byte[length];
+            in.readFully(data);
+            in.readInt();
+            String name = new String(type, "US-ASCII");
+            if (name.equals("IDAT")) {
+                idat.write(data);
+            } else if (name.equals("IEND")) {
+                break;
+            }
+        }
+        InflaterInputStream inflater = new InflaterInputStream(new ByteArrayInputStream(idat.toByteArray()));
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = inflater.read(buffer)) > 0; ) {
+            raw.write(buffer, 0, n);
+        }
+        return raw.toByteArray();
+    }
+
+    private static void assertSubFiltered(byte[] png, int bytesPerPixel) throws IOException {
+        // IHDR data follows the signature, its length and its type.
+        assertEquals(8, png[8 + 8 + 8]);
+        assertEquals(bytesPerPixel == 1 ? 0 : 2, png[8 + 8 + 9]);
+        byte[] raw = scanlines(png);
+        int stride = 1 + WIDTH * bytesPerPixel;
+        assertEquals(HEIGHT * stride, raw.length);
+        for (int y = 0; y < HEIGHT; y++) {
+            assertEquals("filter of row " + y, 1, raw[y * stride]);
+        }
+    }
+
+    @Test
+    public void rgbRoundTrips() throws IOException {
+        byte[] rgba = pixels(4);
+        byte[] png = encode(rgba, false);
+        assertSubFiltered(png, 3);
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertNotNull(image);
+        assertEquals(WIDTH, image.getWidth());
+        assertEquals(HEIGHT, image.getHeight());
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = (y * WIDTH + x) * 4;
+                int expected = 0xFF000000 | (rgba[i] & 0xFF) << 16 | (rgba[i + 1] & 0xFF) << 8 | (rgba[i + 2] & 0xFF);
+                assertEquals("pixel " + x + "," + y, expected, image.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void grayRoundTrips() throws IOException {
+        byte[] gray = pixels(1);
+        byte[] png = encode(gray, true);
+        assertSubFiltered(png, 1);
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertNotNull(image);
+        assertEquals(1, image.getRaster().getNumBands());
+        byte[] decoded = new byte[WIDTH * HEIGHT];
+        int[] samples = image.getRaster().getSamples(0, 0, WIDTH, HEIGHT, 0, (int[]) null);
+        for (int i = 0; i < samples.length; i++) {
+            decoded[i] = (byte) samples[i];
+        }
+        assertArrayEquals(gray, decoded);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void finishNeedsEveryRow() throws IOException {
+        try (PngStreamWriter writer = new PngStreamWriter(new ByteArrayOutputStream(), WIDTH, HEIGHT)) {
+            writer.writeRows(new byte[WIDTH * 4], 0, 1);
+            writer.finish();
+        }
+    }
+}
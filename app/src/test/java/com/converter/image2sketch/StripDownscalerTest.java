@@ -0,0 +1,100 @@
+package com.converter.image2sketch;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StripDownscalerTest {
+
+    private static int[] gradient(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = 0xFF000000 | (x * 255 / width) << 16 | (y * 255 / height) << 8 | ((x + y) * 7 & 0xFF);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Feeds {@code decoded}, which has one row per {@code sampleSize} source rows, in strips
+     * of {@code stripRows} decoded rows.
+     */
+    private static int[] downscale(int[] decoded, int width, int sourceHeight, int sampleSize,
+                                   int targetWidth, int targetHeight, int stripRows) {
+        int decodedRows = decoded.length / width;
+        StripDownscaler downscaler = new StripDownscaler(sourceHeight, targetWidth, targetHeight);
+        for (int first = 0; first < decodedRows; first += stripRows) {
+            int rows = Math.min(stripRows, decodedRows - first);
+            int[] strip = Arrays.copyOfRange(decoded, first * width, (first + rows) * width);
+            downscaler.addStrip(strip, width, rows, first * sampleSize, sampleSize);
+        }
+        downscaler.finish();
+        return downscaler.pixels();
+    }
+
+    /** Area average of one channel, computed directly in doubles. */
+    private static int areaAverage(int[] pixels, int width, int height, int targetWidth, int targetHeight,
+                                   int tx, int ty, int shift) {
+        double xScale = width / (double) targetWidth;
+        double yScale = height / (double) targetHeight;
+        double sum = 0;
+        double weight = 0;
+        for (int y = 0; y < height; y++) {
+            double h = Math.min(y + 1, (ty + 1) * yScale) - Math.max(y, ty * yScale);
+            for (int x = 0; x < width && h > 0; x++) {
+                double w = Math.min(x + 1, (tx + 1) * xScale) - Math.max(x, tx * xScale);
+                if (w > 0) {
+                    sum += ((pixels[y * width + x] >> shift) & 0xFF) * w * h;
+                    weight += w * h;
+                }
+            }
+        }
+        return (int) Math.round(sum / weight);
+    }
+
+    @Test
+    public void stripBoundariesDoNotChangeTheResult() {
+        int[] source = gradient(29, 31);
+        int[] whole = downscale(source, 29, 31, 1, 7, 9, 31);
+        for (int stripRows = 1; stripRows < 12; stripRows++) {
+            assertArrayEquals("strips of " + stripRows, whole, downscale(source, 29, 31, 1, 7, 9, stripRows));
+        }
+    }
+
+    @Test
+    public void matchesAreaAverage() {
+        int width = 29;
+        int height = 31;
+        int[] source = gradient(width, height);
+        int[] result = downscale(source, width, height, 1, 7, 9, 4);
+        for (int ty = 0; ty < 9; ty++) {
+            for (int tx = 0; tx < 7; tx++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int expected = areaAverage(source, width, height, 7, 9, tx, ty, shift);
+                    int actual = (result[ty * 7 + tx] >> shift) & 0xFF;
+                    assertTrue("pixel " + tx + "," + ty + " expected " + expected + " got " + actual,
+                            Math.abs(expected - actual) <= 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void lastSubsampledRowIsClippedToTheSource() {
+        // Nine source rows decoded at half height give five rows, the last covering one row.
+        int color = 0xFF336699;
+        int[] decoded = new int[6 * 5];
+        Arrays.fill(decoded, color);
+        for (int stripRows = 1; stripRows <= 5; stripRows++) {
+            int[] result = downscale(decoded, 6, 9, 2, 3, 4, stripRows);
+            for (int pixel : result) {
+                assertEquals(Integer.toHexString(color), Integer.toHexString(pixel));
+            }
+        }
+    }
+}
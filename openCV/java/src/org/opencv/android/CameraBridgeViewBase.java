@@ -490,6 +490,20 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
      * @param frame - the current frame to be delivered
      */
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
+        if (deliverFrame(frame, mCacheBitmap)) {
+            drawFrame(mCacheBitmap);
+        }
+    }
+
+    /**
+     * Passes the frame to the external client and converts the result into bitmap, which
+     * keeps its previous content if the client returns null. Pipelined subclasses call this
+     * and {@link #drawFrame(Bitmap)} on different threads.
+     * @param frame - the current frame to be delivered
+     * @param bitmap - receives the frame as it should be displayed
+     * @return false if the result could not be converted and should not be drawn
+     */
+    protected boolean deliverFrame(CvCameraViewFrame frame, Bitmap bitmap) {
         Mat modified;
 
         if (mListener != null) {
@@ -501,42 +515,46 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         boolean bmpValid = true;
         if (modified != null) {
             try {
-                Utils.matToBitmap(modified, mCacheBitmap);
+                Utils.matToBitmap(modified, bitmap);
             } catch(Exception e) {
                 Log.e(TAG, "Mat type: " + modified);
-                Log.e(TAG, "Bitmap type: " + mCacheBitmap.getWidth() + "*" + mCacheBitmap.getHeight());
+                Log.e(TAG, "Bitmap type: " + bitmap.getWidth() + "*" + bitmap.getHeight());
                 Log.e(TAG, "Utils.matToBitmap() throws an exception: " + e.getMessage());
                 bmpValid = false;
             }
         }
+        return bmpValid && bitmap != null;
+    }
 
-        if (bmpValid && mCacheBitmap != null) {
-            Canvas canvas = getHolder().lockCanvas();
-            if (canvas != null) {
-                canvas.drawColor(0, android.graphics.PorterDuff.Mode.CLEAR);
-                if (BuildConfig.DEBUG)
-                    Log.d(TAG, "mStretch value: " + mScale);
-
-                if (mScale != 0) {
-                    canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2),
-                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2),
-                         (int)((canvas.getWidth() - mScale*mCacheBitmap.getWidth()) / 2 + mScale*mCacheBitmap.getWidth()),
-                         (int)((canvas.getHeight() - mScale*mCacheBitmap.getHeight()) / 2 + mScale*mCacheBitmap.getHeight())), null);
-                } else {
-                     canvas.drawBitmap(mCacheBitmap, new Rect(0,0,mCacheBitmap.getWidth(), mCacheBitmap.getHeight()),
-                         new Rect((canvas.getWidth() - mCacheBitmap.getWidth()) / 2,
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2,
-                         (canvas.getWidth() - mCacheBitmap.getWidth()) / 2 + mCacheBitmap.getWidth(),
-                         (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight()), null);
-                }
+    /**
+     * Draws a frame prepared by {@link #deliverFrame(CvCameraViewFrame, Bitmap)} on the surface.
+     */
+    protected void drawFrame(Bitmap bitmap) {
+        Canvas canvas = getHolder().lockCanvas();
+        if (canvas != null) {
+            canvas.drawColor(0, android.graphics.PorterDuff.Mode.CLEAR);
+            if (BuildConfig.DEBUG)
+                Log.d(TAG, "mStretch value: " + mScale);
+
+            if (mScale != 0) {
+                canvas.drawBitmap(bitmap, new Rect(0,0,bitmap.getWidth(), bitmap.getHeight()),
+                     new Rect((int)((canvas.getWidth() - mScale*bitmap.getWidth()) / 2),
+                     (int)((canvas.getHeight() - mScale*bitmap.getHeight()) / 2),
+                     (int)((canvas.getWidth() - mScale*bitmap.getWidth()) / 2 + mScale*bitmap.getWidth()),
+                     (int)((canvas.getHeight() - mScale*bitmap.getHeight()) / 2 + mScale*bitmap.getHeight())), null);
+            } else {
+                 canvas.drawBitmap(bitmap, new Rect(0,0,bitmap.getWidth(), bitmap.getHeight()),
+                     new Rect((canvas.getWidth() - bitmap.getWidth()) / 2,
+                     (canvas.getHeight() - bitmap.getHeight()) / 2,
+                     (canvas.getWidth() - bitmap.getWidth()) / 2 + bitmap.getWidth(),
+                     (canvas.getHeight() - bitmap.getHeight()) / 2 + bitmap.getHeight()), null);
+            }
 
-                if (mFpsMeter != null) {
-                    mFpsMeter.measure();
-                    mFpsMeter.draw(canvas, 20, 30);
-                }
-                getHolder().unlockCanvasAndPost(canvas);
+            if (mFpsMeter != null) {
+                mFpsMeter.measure();
+                mFpsMeter.draw(canvas, 20, 30);
             }
+            getHolder().unlockCanvasAndPost(canvas);
         }
     }
 
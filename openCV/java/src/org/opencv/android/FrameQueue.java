@@ -0,0 +1,80 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded queue joining two stages of the camera frame pipeline. It is a ring of slots with
+ * a sequence number per slot, after Dmitry Vyukov's bounded MPMC queue: producers and consumers
+ * claim positions with a compare-and-set and never take a lock or allocate. Sequences advance
+ * by two per lap so that a ring of a single slot still tells full from empty.
+ */
+class FrameQueue<T> {
+
+    private final int mCapacity;
+    private final AtomicReferenceArray<T> mSlots;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+
+    FrameQueue(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        mCapacity = capacity;
+        mSlots = new AtomicReferenceArray<T>(capacity);
+        mSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            mSequences.set(i, 2L * i);
+        }
+    }
+
+    int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Adds item at the tail.
+     * @return false, leaving the queue unchanged, if it is full
+     */
+    boolean offer(T item) {
+        long position = mTail.get();
+        while (true) {
+            int index = (int) (position % mCapacity);
+            long diff = mSequences.get(index) - 2 * position;
+            if (diff == 0) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    mSlots.set(index, item);
+                    mSequences.set(index, 2 * position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+            position = mTail.get();
+        }
+    }
+
+    /**
+     * Removes the item at the head.
+     * @return the item, or null if the queue is empty
+     */
+    T poll() {
+        long position = mHead.get();
+        while (true) {
+            int index = (int) (position % mCapacity);
+            long diff = mSequences.get(index) - (2 * position + 1);
+            if (diff == 0) {
+                if (mHead.compareAndSet(position, position + 1)) {
+                    T item = mSlots.get(index);
+                    mSlots.set(index, null);
+                    mSequences.set(index, 2 * (position + mCapacity));
+                    return item;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+            position = mHead.get();
+        }
+    }
+}
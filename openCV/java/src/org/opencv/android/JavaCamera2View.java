@@ -1,11 +1,12 @@
 package org.opencv.android;
 
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.ImageFormat;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
@@ -23,6 +24,7 @@ import android.util.Log;
 import android.view.Surface;
 import android.view.ViewGroup.LayoutParams;
 
+import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
@@ -36,6 +38,11 @@ import org.opencv.imgproc.Imgproc;
  * disconnectCamera - closes the camera and stops preview.
  * When frame is delivered via callback from Camera - it processed via OpenCV to be
  * converted to RGBA32 and then passed to the external callback for modifications if required.
+ *
+ * Frames go through a pipeline of three threads: the camera thread copies each image into
+ * pooled Mats and closes it, a processing thread runs the external callback and converts
+ * the result into a pooled Bitmap, and a presentation thread draws it. The stages are joined
+ * by bounded lock-free queues; see {@link #setPipelineDepth(int)} and {@link #setDropPolicy(int)}.
  */
 
 @TargetApi(21)
@@ -43,6 +50,11 @@ public class JavaCamera2View extends CameraBridgeViewBase {
 
     private static final String LOGTAG = "JavaCamera2View";
 
+    /** When a stage falls behind, the oldest queued frame is discarded for the new one. */
+    public static final int DROP_OLDEST = 0;
+    /** When a stage falls behind, new frames are discarded until the queue has room. */
+    public static final int DROP_NEWEST = 1;
+
     protected ImageReader mImageReader;
     protected int mPreviewFormat = ImageFormat.YUV_420_888;
     protected int mRequestTemplate = CameraDevice.TEMPLATE_PREVIEW;
@@ -57,6 +69,18 @@ public class JavaCamera2View extends CameraBridgeViewBase {
     private HandlerThread mBackgroundThread;
     protected Handler mBackgroundHandler;
 
+    private int mPipelineDepth = 2;
+    private int mDropPolicy = DROP_OLDEST;
+    private volatile boolean mPipelineRunning;
+    private Thread mProcessingThread;
+    private Thread mPresentationThread;
+    private FrameQueue<JavaCamera2Frame> mFreeFrames;
+    private FrameQueue<JavaCamera2Frame> mCapturedFrames;
+    private FrameQueue<Bitmap> mFreeBitmaps;
+    private FrameQueue<Bitmap> mProcessedBitmaps;
+    // Only touched on the background thread, which copies every image out of the reader.
+    private int mChromaCode;
+
     public JavaCamera2View(Context context, int cameraId) {
         super(context, cameraId);
     }
@@ -65,6 +89,28 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         super(context, attrs);
     }
 
+    /**
+     * Sets how many frames may wait between two stages of the pipeline. A depth of 1 gives
+     * the lowest latency; a deeper pipeline absorbs uneven processing times. Takes effect the
+     * next time the camera is connected.
+     * @param depth - frames queued ahead of processing and ahead of presentation, at least 1
+     */
+    public void setPipelineDepth(int depth) {
+        if (depth < 1)
+            throw new IllegalArgumentException("Pipeline depth must be at least 1: " + depth);
+        mPipelineDepth = depth;
+    }
+
+    /**
+     * Sets which frame is discarded when a stage is full.
+     * @param policy - {@link #DROP_OLDEST} (the default) or {@link #DROP_NEWEST}
+     */
+    public void setDropPolicy(int policy) {
+        if (policy != DROP_OLDEST && policy != DROP_NEWEST)
+            throw new IllegalArgumentException("Unknown drop policy: " + policy);
+        mDropPolicy = policy;
+    }
+
     private void startBackgroundThread() {
         Log.i(LOGTAG, "startBackgroundThread");
         stopBackgroundThread();
@@ -198,6 +244,7 @@ public class JavaCamera2View extends CameraBridgeViewBase {
             }
 
             mImageReader = ImageReader.newInstance(w, h, mPreviewFormat, 2);
+            mChromaCode = 0;
             mImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
                 @Override
                 public void onImageAvailable(ImageReader reader) {
@@ -211,11 +258,15 @@ public class JavaCamera2View extends CameraBridgeViewBase {
                     assert (planes.length == 3);
                     assert (image.getFormat() == mPreviewFormat);
 
-                    RotatedCameraFrame tempFrame = new RotatedCameraFrame(new JavaCamera2Frame(image), mFrameRotation);
-                    deliverAndDrawFrame(tempFrame);
-                    tempFrame.mFrame.release();
-                    tempFrame.release();
+                    // The image goes back to the reader as soon as it is copied, so the camera
+                    // never waits on processing.
+                    JavaCamera2Frame frame = mFreeFrames.poll();
+                    if (frame == null)
+                        frame = new JavaCamera2Frame();
+                    frame.capture(image);
                     image.close();
+                    enqueueFrame(frame);
+                    LockSupport.unpark(mProcessingThread);
                 }
             }, mBackgroundHandler);
             Surface surface = mImageReader.getSurface();
@@ -245,6 +296,7 @@ public class JavaCamera2View extends CameraBridgeViewBase {
             }
         } finally {
             stopBackgroundThread();
+            stopPipeline();
             if (null != mImageReader) {
                 mImageReader.close();
                 mImageReader = null;
@@ -253,6 +305,169 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         Log.i(LOGTAG, "camera closed!");
     }
 
+    private void startPipeline() {
+        stopPipeline();
+        // Each stage holds at most one object beyond what the queues hold, so the pools
+        // stop growing once the pipeline has filled.
+        mFreeFrames = new FrameQueue<JavaCamera2Frame>(mPipelineDepth + 2);
+        mCapturedFrames = new FrameQueue<JavaCamera2Frame>(mPipelineDepth);
+        mFreeBitmaps = new FrameQueue<Bitmap>(mPipelineDepth + 2);
+        mProcessedBitmaps = new FrameQueue<Bitmap>(mPipelineDepth);
+        mPipelineRunning = true;
+
+        mProcessingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processFrames();
+            }
+        }, "OpenCVCameraProcessing");
+        mPresentationThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                presentFrames();
+            }
+        }, "OpenCVCameraPresentation");
+        mProcessingThread.start();
+        mPresentationThread.start();
+    }
+
+    /**
+     * Stops the processing and presentation threads and frees the pooled frames. Called once
+     * the camera thread has stopped, so nothing is enqueued any more.
+     */
+    private void stopPipeline() {
+        if (mProcessingThread == null)
+            return;
+        mPipelineRunning = false;
+        LockSupport.unpark(mProcessingThread);
+        LockSupport.unpark(mPresentationThread);
+        try {
+            mProcessingThread.join();
+            mPresentationThread.join();
+        } catch (InterruptedException e) {
+            Log.e(LOGTAG, "stopPipeline", e);
+        }
+        mProcessingThread = null;
+        mPresentationThread = null;
+
+        JavaCamera2Frame frame;
+        while ((frame = mCapturedFrames.poll()) != null)
+            frame.release();
+        while ((frame = mFreeFrames.poll()) != null)
+            frame.release();
+        Bitmap bitmap;
+        while ((bitmap = mProcessedBitmaps.poll()) != null)
+            bitmap.recycle();
+        while ((bitmap = mFreeBitmaps.poll()) != null)
+            bitmap.recycle();
+    }
+
+    private void processFrames() {
+        RotatedCameraFrame rotatedFrame = new RotatedCameraFrame(null, mFrameRotation);
+        try {
+            JavaCamera2Frame frame;
+            while ((frame = take(mCapturedFrames)) != null) {
+                Bitmap bitmap = mFreeBitmaps.poll();
+                if (bitmap == null)
+                    bitmap = Bitmap.createBitmap(mFrameWidth, mFrameHeight, Bitmap.Config.ARGB_8888);
+                rotatedFrame.mFrame = frame;
+                boolean valid = deliverFrame(rotatedFrame, bitmap);
+                recycleFrame(frame);
+                if (valid) {
+                    enqueueBitmap(bitmap);
+                    LockSupport.unpark(mPresentationThread);
+                } else {
+                    recycleBitmap(bitmap);
+                }
+            }
+        } finally {
+            rotatedFrame.release();
+        }
+    }
+
+    private void presentFrames() {
+        Bitmap bitmap;
+        while ((bitmap = take(mProcessedBitmaps)) != null) {
+            drawFrame(bitmap);
+            recycleBitmap(bitmap);
+        }
+    }
+
+    /**
+     * Waits for the next item of queue.
+     * @return the item, or null once the pipeline is stopped; queued items are then left
+     * for {@link #stopPipeline()} to free
+     */
+    private <T> T take(FrameQueue<T> queue) {
+        while (mPipelineRunning) {
+            T item = queue.poll();
+            if (item != null)
+                return item;
+            LockSupport.park(this);
+        }
+        return null;
+    }
+
+    private void enqueueFrame(JavaCamera2Frame frame) {
+        if (mDropPolicy == DROP_NEWEST) {
+            if (!mCapturedFrames.offer(frame))
+                recycleFrame(frame);
+            return;
+        }
+        while (!mCapturedFrames.offer(frame)) {
+            JavaCamera2Frame dropped = mCapturedFrames.poll();
+            if (dropped != null)
+                recycleFrame(dropped);
+        }
+    }
+
+    private void enqueueBitmap(Bitmap bitmap) {
+        if (mDropPolicy == DROP_NEWEST) {
+            if (!mProcessedBitmaps.offer(bitmap))
+                recycleBitmap(bitmap);
+            return;
+        }
+        while (!mProcessedBitmaps.offer(bitmap)) {
+            Bitmap dropped = mProcessedBitmaps.poll();
+            if (dropped != null)
+                recycleBitmap(dropped);
+        }
+    }
+
+    private void recycleFrame(JavaCamera2Frame frame) {
+        if (!mFreeFrames.offer(frame))
+            frame.release();
+    }
+
+    private void recycleBitmap(Bitmap bitmap) {
+        if (!mFreeBitmaps.offer(bitmap))
+            bitmap.recycle();
+    }
+
+    /**
+     * Copies a plane into dst with one native copy, through a header over the image buffer
+     * that is released straight after. dst keeps its storage from frame to frame.
+     */
+    private static void copyPlane(Image.Plane plane, int rows, int cols, int type, Mat dst) {
+        Mat wrapped = new Mat(rows, cols, type, plane.getBuffer(), plane.getRowStride());
+        wrapped.copyTo(dst);
+        wrapped.release();
+    }
+
+    /**
+     * Tells NV12 from NV21 by which of the two interleaved chroma planes starts first. The
+     * order is fixed for a reader, so this runs once per preview session.
+     */
+    private static int chromaCode(Image.Plane[] planes) {
+        Mat u = new Mat(1, 1, CvType.CV_8UC1, planes[1].getBuffer());
+        Mat v = new Mat(1, 1, CvType.CV_8UC1, planes[2].getBuffer());
+        long addr_diff = v.dataAddr() - u.dataAddr();
+        u.release();
+        v.release();
+        assert(addr_diff == 1 || addr_diff == -1);
+        return addr_diff > 0 ? Imgproc.COLOR_YUV2RGBA_NV12 : Imgproc.COLOR_YUV2RGBA_NV21;
+    }
+
     public static class JavaCameraSizeAccessor implements ListItemAccessor {
         @Override
         public int getWidth(Object obj) {
@@ -324,7 +539,9 @@ public class JavaCamera2View extends CameraBridgeViewBase {
             else
                 mScale = 0;
 
-            AllocateCache();
+            // Frames are drawn from the pipeline's own bitmaps, so the base class cache
+            // bitmap is never allocated.
+            startPipeline();
 
             if (needReconfig) {
                 if (null != mCaptureSession) {
@@ -348,122 +565,80 @@ public class JavaCamera2View extends CameraBridgeViewBase {
         return true;
     }
 
+    /**
+     * A camera image copied into Mats that are reused from frame to frame: the luma plane and
+     * the chroma planes interleaved as in NV12 or NV21. RGBA is only computed when asked for.
+     */
     private class JavaCamera2Frame implements CvCameraViewFrame {
         @Override
         public Mat gray() {
-            Image.Plane[] planes = mImage.getPlanes();
-            int w = mImage.getWidth();
-            int h = mImage.getHeight();
-            assert(planes[0].getPixelStride() == 1);
-            ByteBuffer y_plane = planes[0].getBuffer();
-            int y_plane_step = planes[0].getRowStride();
-            mGray = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
             return mGray;
         }
 
         @Override
         public Mat rgba() {
-            Image.Plane[] planes = mImage.getPlanes();
-            int w = mImage.getWidth();
-            int h = mImage.getHeight();
-            int chromaPixelStride = planes[1].getPixelStride();
+            if (!mRgbaValid) {
+                Imgproc.cvtColorTwoPlane(mGray, mChroma, mRgba, mFrameChromaCode);
+                mRgbaValid = true;
+            }
+            return mRgba;
+        }
 
+        /**
+         * Copies the image's planes into this frame's own Mats, one native copy per plane.
+         */
+        public void capture(Image image) {
+            Image.Plane[] planes = image.getPlanes();
+            int w = image.getWidth();
+            int h = image.getHeight();
+            assert(planes[0].getPixelStride() == 1);
+            copyPlane(planes[0], h, w, CvType.CV_8UC1, mGray);
 
+            int chromaPixelStride = planes[1].getPixelStride();
             if (chromaPixelStride == 2) { // Chroma channels are interleaved
-                assert(planes[0].getPixelStride() == 1);
                 assert(planes[2].getPixelStride() == 2);
-                ByteBuffer y_plane = planes[0].getBuffer();
-                int y_plane_step = planes[0].getRowStride();
-                ByteBuffer uv_plane1 = planes[1].getBuffer();
-                int uv_plane1_step = planes[1].getRowStride();
-                ByteBuffer uv_plane2 = planes[2].getBuffer();
-                int uv_plane2_step = planes[2].getRowStride();
-                Mat y_mat = new Mat(h, w, CvType.CV_8UC1, y_plane, y_plane_step);
-                Mat uv_mat1 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane1, uv_plane1_step);
-                Mat uv_mat2 = new Mat(h / 2, w / 2, CvType.CV_8UC2, uv_plane2, uv_plane2_step);
-                long addr_diff = uv_mat2.dataAddr() - uv_mat1.dataAddr();
-                if (addr_diff > 0) {
-                    assert(addr_diff == 1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat1, mRgba, Imgproc.COLOR_YUV2RGBA_NV12);
-                } else {
-                    assert(addr_diff == -1);
-                    Imgproc.cvtColorTwoPlane(y_mat, uv_mat2, mRgba, Imgproc.COLOR_YUV2RGBA_NV21);
-                }
-                return mRgba;
+                if (mChromaCode == 0)
+                    mChromaCode = chromaCode(planes);
+                // Read from the plane that starts first, the chroma is one interleaved
+                // image. Its last byte lies just past that plane's buffer, in the other one.
+                Image.Plane first = mChromaCode == Imgproc.COLOR_YUV2RGBA_NV12 ? planes[1] : planes[2];
+                copyPlane(first, h / 2, w / 2, CvType.CV_8UC2, mChroma);
+                mFrameChromaCode = mChromaCode;
             } else { // Chroma channels are not interleaved
-                byte[] yuv_bytes = new byte[w*(h+h/2)];
-                ByteBuffer y_plane = planes[0].getBuffer();
-                ByteBuffer u_plane = planes[1].getBuffer();
-                ByteBuffer v_plane = planes[2].getBuffer();
-
-                int yuv_bytes_offset = 0;
-
-                int y_plane_step = planes[0].getRowStride();
-                if (y_plane_step == w) {
-                    y_plane.get(yuv_bytes, 0, w*h);
-                    yuv_bytes_offset = w*h;
-                } else {
-                    int padding = y_plane_step - w;
-                    for (int i = 0; i < h; i++){
-                        y_plane.get(yuv_bytes, yuv_bytes_offset, w);
-                        yuv_bytes_offset += w;
-                        if (i < h - 1) {
-                            y_plane.position(y_plane.position() + padding);
-                        }
-                    }
-                    assert(yuv_bytes_offset == w * h);
-                }
-
-                int chromaRowStride = planes[1].getRowStride();
-                int chromaRowPadding = chromaRowStride - w/2;
-
-                if (chromaRowPadding == 0){
-                    // When the row stride of the chroma channels equals their width, we can copy
-                    // the entire channels in one go
-                    u_plane.get(yuv_bytes, yuv_bytes_offset, w*h/4);
-                    yuv_bytes_offset += w*h/4;
-                    v_plane.get(yuv_bytes, yuv_bytes_offset, w*h/4);
-                } else {
-                    // When not equal, we need to copy the channels row by row
-                    for (int i = 0; i < h/2; i++){
-                        u_plane.get(yuv_bytes, yuv_bytes_offset, w/2);
-                        yuv_bytes_offset += w/2;
-                        if (i < h/2-1){
-                            u_plane.position(u_plane.position() + chromaRowPadding);
-                        }
-                    }
-                    for (int i = 0; i < h/2; i++){
-                        v_plane.get(yuv_bytes, yuv_bytes_offset, w/2);
-                        yuv_bytes_offset += w/2;
-                        if (i < h/2-1){
-                            v_plane.position(v_plane.position() + chromaRowPadding);
-                        }
-                    }
-                }
-
-                Mat yuv_mat = new Mat(h+h/2, w, CvType.CV_8UC1);
-                yuv_mat.put(0, 0, yuv_bytes);
-                Imgproc.cvtColor(yuv_mat, mRgba, Imgproc.COLOR_YUV2RGBA_I420, 4);
-                return mRgba;
+                copyPlane(planes[1], h / 2, w / 2, CvType.CV_8UC1, mU);
+                copyPlane(planes[2], h / 2, w / 2, CvType.CV_8UC1, mV);
+                Core.merge(mChromaPlanes, mChroma);
+                mFrameChromaCode = Imgproc.COLOR_YUV2RGBA_NV12;
             }
+            mRgbaValid = false;
         }
 
-
-        public JavaCamera2Frame(Image image) {
+        public JavaCamera2Frame() {
             super();
-            mImage = image;
             mRgba = new Mat();
             mGray = new Mat();
+            mChroma = new Mat();
+            mU = new Mat();
+            mV = new Mat();
+            mChromaPlanes = Arrays.asList(mU, mV);
         }
 
         @Override
         public void release() {
             mRgba.release();
             mGray.release();
+            mChroma.release();
+            mU.release();
+            mV.release();
         }
 
-        private Image mImage;
         private Mat mRgba;
         private Mat mGray;
+        private Mat mChroma;
+        private Mat mU;
+        private Mat mV;
+        private List<Mat> mChromaPlanes;
+        private int mFrameChromaCode;
+        private boolean mRgbaValid;
     };
 }
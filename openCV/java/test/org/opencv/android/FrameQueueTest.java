@@ -0,0 +1,44 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameQueueTest {
+
+    @Test
+    public void singleSlotTellsFullFromEmpty() {
+        FrameQueue<Integer> queue = new FrameQueue<Integer>(1);
+        for (int lap = 0; lap < 5; lap++) {
+            assertNull(queue.poll());
+            assertTrue(queue.offer(lap));
+            assertFalse(queue.offer(-1));
+            assertEquals(Integer.valueOf(lap), queue.poll());
+            assertNull(queue.poll());
+        }
+    }
+
+    @Test
+    public void keepsOrderAcrossLaps() {
+        FrameQueue<Integer> queue = new FrameQueue<Integer>(3);
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 10; round++) {
+            while (queue.offer(next)) {
+                next++;
+            }
+            assertEquals(expected + 3, next);
+            for (int i = 0; i < 2; i++) {
+                assertEquals(Integer.valueOf(expected++), queue.poll());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCapacity() {
+        new FrameQueue<Object>(0);
+    }
+}